@@ -10,6 +10,7 @@ CONTRIBUTED BY VANSH BHASIN
   - Admin and Manager Functionalities
 - Role-based access in the main application window  
 - Uses a simple in-memory database for data storage (no external database setup required)  
+- Changes are journaled to a local data directory (./shop-data, or -Dshop.data.dir=...) and survive restarts  
 - Basic Java GUI and logic separation principles
 
 */
@@ -20,138 +21,1868 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import java.text.SimpleDateFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
 
 public class ShoppingManagerSystem {
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            DatabaseService db = new DatabaseService();
+            DatabaseService db;
+            try {
+                db = new DatabaseService();
+            } catch (UncheckedIOException e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(null, "Cannot open the shop data: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             new LoginFrame(db).setVisible(true);
         });
     }
-}
+}
+
+// Database and Service Classes
+// Safe to share between many sessions: the maps are concurrent, ids come from atomic
+// counters, and every change to a product's stock happens under that product's lock stripe.
+// Every change is also appended to a Journal while its locks are held, so the log order
+// matches the order the changes were applied in; the caller then waits for the record to be
+// on disk after the locks are released, which lets concurrent callers share one fsync.
+class DatabaseService {
+    private static final int LOCK_STRIPES = 64; // power of two, see lockFor()
+    // Checkpoint (snapshot + fresh log segment) once this many records have been logged
+    private static final int CHECKPOINT_RECORDS = Integer.getInteger("shop.checkpoint.records", 10000);
+
+    // Journal record types. A record is the type byte followed by the fields written by the
+    // matching write* method; REC_ORDER_STATE and REC_COUNTERS only appear in snapshots.
+    private static final byte REC_USER = 1;            // register, updateUser
+    private static final byte REC_DELETE_USER = 2;
+    private static final byte REC_PRODUCT = 3;         // addProduct, updateProduct
+    private static final byte REC_DELETE_PRODUCT = 4;
+    private static final byte REC_ORDER = 5;           // placeOrder; replay takes the stock again
+    private static final byte REC_ORDER_STATE = 6;     // an order whose stock is already accounted for
+    private static final byte REC_COUNTERS = 7;
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<Integer, Product> products = new ConcurrentHashMap<>();
+    private final Map<Integer, Order> orders = new ConcurrentHashMap<>();
+    // customer username -> that customer's orders, oldest first; each list is guarded by its own monitor
+    private final Map<String, List<Order>> ordersByCustomer = new ConcurrentHashMap<>();
+    private final AtomicInteger nextProductId = new AtomicInteger(1);
+    private final AtomicInteger nextOrderId = new AtomicInteger(1);
+    private final ReentrantLock[] productLocks = new ReentrantLock[LOCK_STRIPES];
+    // Changes hold the read side while they apply and log; a checkpoint takes the write side
+    // to copy a consistent state and start a new log segment at exactly that point.
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final Journal journal; // null when running purely in memory
+    private final DashboardMetrics metrics = new DashboardMetrics(); // kept current by every change below
+    private final FacetIndex facets = new FacetIndex(); // likewise; backs the Products tab filters
+    // Call latencies and counts for the Diagnostics tab and the metrics endpoint
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRegistry.Latency registerLatency = registry.latency("db.register");
+    private final MetricsRegistry.Latency loginLatency = registry.latency("db.login");
+    private final MetricsRegistry.Latency addProductLatency = registry.latency("db.addProduct");
+    private final MetricsRegistry.Latency updateProductLatency = registry.latency("db.updateProduct");
+    private final MetricsRegistry.Latency deleteProductLatency = registry.latency("db.deleteProduct");
+    private final MetricsRegistry.Latency getAllProductsLatency = registry.latency("db.getAllProducts");
+    private final MetricsRegistry.Latency facetQueryLatency = registry.latency("db.facetQuery");
+    private final MetricsRegistry.Latency placeOrderLatency = registry.latency("db.placeOrder");
+    private final MetricsRegistry.Latency getOrdersLatency = registry.latency("db.getOrdersForUser");
+    private final MetricsRegistry.Latency getAllOrdersLatency = registry.latency("db.getAllOrders");
+    private final MetricsRegistry.Latency updateUserLatency = registry.latency("db.updateUser");
+    private final MetricsRegistry.Latency deleteUserLatency = registry.latency("db.deleteUser");
+    private final MetricsRegistry.Latency syncLatency = registry.latency("journal.sync"); // wait for the group fsync
+    private final MetricsRegistry.Latency checkpointLatency = registry.latency("journal.checkpoint");
+    private final LongAdder ordersRejected = registry.counter("db.placeOrder.rejected");
+    private volatile User currentUser;
+
+    public DatabaseService() {
+        this(new File(System.getProperty("shop.data.dir", "shop-data")));
+    }
+
+    // dataDir == null keeps everything in memory and seeds the sample data on every start
+    public DatabaseService(File dataDir) {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            productLocks[i] = new ReentrantLock();
+        }
+        if (dataDir == null) {
+            journal = null;
+            initializeSampleData();
+            return;
+        }
+        try {
+            journal = new Journal(dataDir, !Boolean.getBoolean("shop.journal.nosync"));
+            boolean existing = journal.recover(this::applyRecord);
+            journal.start();
+            if (!existing) {
+                initializeSampleData(); // first start only; afterwards everything comes from disk
+            }
+            checkpoint(); // startup compacts whatever log tail it replayed into a new snapshot
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open data directory " + dataDir.getAbsolutePath(), e);
+        }
+
+        ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                if (journal.getRecordsSinceRotate() >= CHECKPOINT_RECORDS) {
+                    checkpoint();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "journal-close"));
+    }
+
+    private ReentrantLock lockFor(int productId) {
+        return productLocks[productId & (LOCK_STRIPES - 1)];
+    }
+
+    private void initializeSampleData() {
+        // Initialize admin and manager accounts
+        users.put("admin", new User("admin", "admin123", "admin", "Admin User"));
+        users.put("manager", new User("manager", "manager123", "manager", "Store Manager"));
+        
+        // Initialize sample products
+        addProduct(new Product("Apple", 0.99, 100, "Fruits", "Fresh red apples"));
+        addProduct(new Product("Milk", 2.49, 50, "Dairy", "Whole milk 1 gallon"));
+        addProduct(new Product("Bread", 1.99, 75, "Bakery", "Whole wheat bread"));
+        addProduct(new Product("Eggs", 3.29, 60, "Dairy", "Large eggs, dozen"));
+        addProduct(new Product("Chicken", 5.99, 30, "Meat", "Boneless chicken breast"));
+    }
+
+    // User management
+    public boolean register(String username, String password, String role, String fullName) {
+        long start = System.nanoTime();
+        try {
+            User user = new User(username, password, role, fullName);
+            long seq;
+            stateLock.readLock().lock();
+            try {
+                synchronized (users) {
+                    if (users.putIfAbsent(username, user) != null) {
+                        return false;
+                    }
+                    seq = log(REC_USER, out -> writeUser(out, user));
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            sync(seq);
+            return true;
+        } finally {
+            registerLatency.recordSince(start);
+        }
+    }
+
+    public User login(String username, String password) {
+        long start = System.nanoTime();
+        try {
+            User user = users.get(username);
+            if (user != null && user.getPassword().equals(password)) {
+                currentUser = user;
+                return user;
+            }
+            return null;
+        } finally {
+            loginLatency.recordSince(start);
+        }
+    }
+
+    public void logout() {
+        currentUser = null;
+    }
+
+    public User getCurrentUser() {
+        return currentUser;
+    }
+
+    // Product management
+    public void addProduct(Product product) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            stateLock.readLock().lock();
+            try {
+                product.setId(nextProductId.getAndIncrement());
+                ReentrantLock lock = lockFor(product.getId());
+                lock.lock();
+                try {
+                    products.put(product.getId(), product);
+                    metrics.stockChanged(product.getId(), product.getStock());
+                    facets.productChanged(product);
+                    seq = log(REC_PRODUCT, out -> writeProduct(out, product));
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            sync(seq);
+        } finally {
+            addProductLatency.recordSince(start);
+        }
+    }
+
+    public boolean updateProduct(Product product) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            stateLock.readLock().lock();
+            ReentrantLock lock = lockFor(product.getId());
+            lock.lock();
+            try {
+                if (products.replace(product.getId(), product) == null) {
+                    return false;
+                }
+                metrics.stockChanged(product.getId(), product.getStock());
+                facets.productChanged(product);
+                seq = log(REC_PRODUCT, out -> writeProduct(out, product));
+            } finally {
+                lock.unlock();
+                stateLock.readLock().unlock();
+            }
+            sync(seq);
+            return true;
+        } finally {
+            updateProductLatency.recordSince(start);
+        }
+    }
+
+    public boolean deleteProduct(int productId) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            stateLock.readLock().lock();
+            ReentrantLock lock = lockFor(productId);
+            lock.lock();
+            try {
+                if (products.remove(productId) == null) {
+                    return false;
+                }
+                metrics.productRemoved(productId);
+                facets.productRemoved(productId);
+                seq = log(REC_DELETE_PRODUCT, out -> out.writeInt(productId));
+            } finally {
+                lock.unlock();
+                stateLock.readLock().unlock();
+            }
+            sync(seq);
+            return true;
+        } finally {
+            deleteProductLatency.recordSince(start);
+        }
+    }
+
+    public List<Product> getAllProducts() {
+        long start = System.nanoTime();
+        try {
+            return new ArrayList<>(products.values());
+        } finally {
+            getAllProductsLatency.recordSince(start);
+        }
+    }
+
+    public int getProductCount() {
+        return products.size();
+    }
+
+    // Ids of every product, ascending; lets a table page through products without copying them
+    public int[] getProductIds() {
+        int[] ids = new int[products.size()];
+        int n = 0;
+        for (Integer id : products.keySet()) {
+            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2 + 1); // products added while copying
+            ids[n++] = id;
+        }
+        ids = Arrays.copyOf(ids, n);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    public Product getProductById(int id) {
+        return products.get(id);
+    }
+
+    // Ids of the products matching the facet selection, ascending; see FacetIndex.filter()
+    public int[] getProductIds(Map<FacetIndex.Facet, Set<String>> selected) {
+        long start = System.nanoTime();
+        try {
+            return facets.filter(selected).toArray();
+        } finally {
+            facetQueryLatency.recordSince(start);
+        }
+    }
+
+    // Per facet value, how many products the selection would leave; see FacetIndex.counts()
+    public Map<FacetIndex.Facet, Map<String, Integer>> getFacetCounts(Map<FacetIndex.Facet, Set<String>> selected) {
+        long start = System.nanoTime();
+        try {
+            return facets.counts(selected);
+        } finally {
+            facetQueryLatency.recordSince(start);
+        }
+    }
+
+    // Order management
+    // Checks and decrements stock for every line atomically. Returns false, and changes
+    // nothing, if a product no longer exists or does not have enough stock left.
+    public boolean placeOrder(Order order) {
+        long start = System.nanoTime();
+        try {
+            // Total quantity per product, in id order so every caller takes the stripes in the same order
+            TreeMap<Integer, Integer> quantities = new TreeMap<>();
+            for (OrderItem item : order.getItems()) {
+                quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+            }
+            TreeSet<Integer> stripes = new TreeSet<>();
+            for (int productId : quantities.keySet()) {
+                stripes.add(productId & (LOCK_STRIPES - 1));
+            }
+
+            long seq;
+            List<ReentrantLock> held = new ArrayList<>();
+            stateLock.readLock().lock();
+            try {
+                for (int stripe : stripes) {
+                    ReentrantLock lock = productLocks[stripe];
+                    lock.lock();
+                    held.add(lock);
+                }
+                for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+                    Product p = products.get(line.getKey());
+                    if (p == null || p.getStock() < line.getValue()) {
+                        ordersRejected.increment();
+                        return false;
+                    }
+                }
+                // Update inventory
+                for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+                    Product p = products.get(line.getKey());
+                    p.setStock(p.getStock() - line.getValue());
+                    metrics.stockChanged(p.getId(), p.getStock());
+                    facets.productChanged(p);
+                }
+
+                // Numbering and indexing under the customer's lock keeps their history in id order.
+                // It stays inside the stripes so the record is logged before anyone else can touch
+                // these products' stock.
+                List<Order> history = ordersByCustomer.computeIfAbsent(order.getCustomerUsername(), k -> new ArrayList<>());
+                synchronized (history) {
+                    order.setId(nextOrderId.getAndIncrement());
+                    order.setOrderDate(new Date());
+                    orders.put(order.getId(), order);
+                    history.add(order);
+                    metrics.orderPlaced(order, this::categoryOf);
+                    seq = log(REC_ORDER, out -> writeOrder(out, order));
+                }
+            } finally {
+                for (int i = held.size() - 1; i >= 0; i--) {
+                    held.get(i).unlock();
+                }
+                stateLock.readLock().unlock();
+            }
+            sync(seq);
+            return true;
+        } finally {
+            placeOrderLatency.recordSince(start);
+        }
+    }
+
+    // All of a customer's orders, newest first
+    public List<Order> getOrdersForUser(String username) {
+        return getRecentOrdersForUser(username, Integer.MAX_VALUE);
+    }
+
+    // At most `limit` of a customer's orders, newest first
+    public List<Order> getRecentOrdersForUser(String username, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<Order> history = ordersByCustomer.get(username);
+            List<Order> recent = new ArrayList<>();
+            if (history == null) return recent;
+            synchronized (history) {
+                for (int i = history.size() - 1; i >= 0 && recent.size() < limit; i--) {
+                    recent.add(history.get(i));
+                }
+            }
+            return recent;
+        } finally {
+            getOrdersLatency.recordSince(start);
+        }
+    }
+
+    // The customer's order ids, newest first; a snapshot to page over, like getProductIds()
+    public int[] getOrderIdsForUser(String username) {
+        List<Order> history = ordersByCustomer.get(username);
+        if (history == null) return new int[0];
+        synchronized (history) {
+            int[] ids = new int[history.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = history.get(ids.length - 1 - i).getId();
+            }
+            return ids;
+        }
+    }
+
+    public int getOrderCountForUser(String username) {
+        List<Order> history = ordersByCustomer.get(username);
+        if (history == null) return 0;
+        synchronized (history) {
+            return history.size();
+        }
+    }
+
+    public List<Order> getAllOrders() {
+        long start = System.nanoTime();
+        try {
+            return new ArrayList<>(orders.values());
+        } finally {
+            getAllOrdersLatency.recordSince(start);
+        }
+    }
+
+    public DashboardMetrics getMetrics() {
+        return metrics;
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    private String categoryOf(int productId) {
+        Product p = products.get(productId);
+        return p != null ? p.getCategory() : "(deleted)";
+    }
+
+    public int getOrderCount() {
+        return orders.size();
+    }
+
+    // Every order id in ascending order, a snapshot for paging
+    public int[] getOrderIds() {
+        int[] ids = new int[orders.size()];
+        int n = 0;
+        for (Integer id : orders.keySet()) {
+            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2 + 1); // orders placed while copying
+            ids[n++] = id;
+        }
+        ids = Arrays.copyOf(ids, n);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    public Order getOrderById(int id) {
+        return orders.get(id);
+    }
+
+    // User management for admin
+    public List<User> getAllUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public boolean updateUser(User user) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            stateLock.readLock().lock();
+            try {
+                synchronized (users) {
+                    if (users.replace(user.getUsername(), user) == null) {
+                        return false;
+                    }
+                    seq = log(REC_USER, out -> writeUser(out, user));
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            sync(seq);
+            return true;
+        } finally {
+            updateUserLatency.recordSince(start);
+        }
+    }
+
+    public boolean deleteUser(String username) {
+        long start = System.nanoTime();
+        try {
+            if (username.equals("admin") || username.equals("manager")) return false;
+            long seq;
+            stateLock.readLock().lock();
+            try {
+                synchronized (users) {
+                    if (users.remove(username) == null) {
+                        return false;
+                    }
+                    seq = log(REC_DELETE_USER, out -> out.writeUTF(username));
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            sync(seq);
+            return true;
+        } finally {
+            deleteUserLatency.recordSince(start);
+        }
+    }
+
+    // Persistence
+
+    // Stops the journal writer after everything queued is on disk
+    public void close() {
+        if (journal != null) journal.close();
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Queues one record and returns its sequence number; 0 when running in memory
+    private long log(byte type, RecordBody body) {
+        if (journal == null) return 0;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen with an in-memory stream
+        }
+        return journal.append(bytes.toByteArray());
+    }
+
+    // Blocks until the record is on disk; called with no locks held
+    private void sync(long seq) {
+        if (journal != null && seq > 0) {
+            long start = System.nanoTime();
+            journal.await(seq);
+            syncLatency.recordSince(start);
+        }
+    }
+
+    // Writes a snapshot of the whole state and starts a new log segment, after which the
+    // older snapshots and segments are deleted. Changes are paused only while the state is copied.
+    public synchronized void checkpoint() {
+        if (journal == null) return;
+        long start = System.nanoTime();
+        try {
+            List<byte[]> state = new ArrayList<>();
+            int segment;
+            stateLock.writeLock().lock();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+                DataOutputStream out = new DataOutputStream(bytes);
+                for (User user : users.values()) {
+                    out.writeByte(REC_USER);
+                    writeUser(out, user);
+                    state.add(bytes.toByteArray());
+                    bytes.reset();
+                }
+                for (int id : getProductIds()) {
+                    out.writeByte(REC_PRODUCT);
+                    writeProduct(out, products.get(id));
+                    state.add(bytes.toByteArray());
+                    bytes.reset();
+                }
+                // Order ids follow each customer's history order, so replaying by id rebuilds it
+                List<Order> all = new ArrayList<>(orders.values());
+                all.sort(Comparator.comparingInt(Order::getId));
+                for (Order order : all) {
+                    out.writeByte(REC_ORDER_STATE);
+                    writeOrder(out, order);
+                    state.add(bytes.toByteArray());
+                    bytes.reset();
+                }
+                out.writeByte(REC_COUNTERS);
+                out.writeInt(nextProductId.get());
+                out.writeInt(nextOrderId.get());
+                state.add(bytes.toByteArray());
+                segment = journal.rotate();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            try {
+                journal.writeSnapshot(segment, state);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Checkpoint failed", e);
+            }
+        } finally {
+            checkpointLatency.recordSince(start);
+        }
+    }
+
+    // Applies one snapshot or log record during recovery, before the service is shared
+    private void applyRecord(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case REC_USER: {
+                User user = readUser(in);
+                users.put(user.getUsername(), user);
+                break;
+            }
+            case REC_DELETE_USER:
+                users.remove(in.readUTF());
+                break;
+            case REC_PRODUCT: {
+                Product product = readProduct(in);
+                products.put(product.getId(), product);
+                metrics.stockChanged(product.getId(), product.getStock());
+                facets.productChanged(product);
+                if (nextProductId.get() <= product.getId()) nextProductId.set(product.getId() + 1);
+                break;
+            }
+            case REC_DELETE_PRODUCT: {
+                int productId = in.readInt();
+                products.remove(productId);
+                metrics.productRemoved(productId);
+                facets.productRemoved(productId);
+                break;
+            }
+            case REC_ORDER:
+            case REC_ORDER_STATE: {
+                Order order = readOrder(in);
+                if (type == REC_ORDER) {
+                    for (OrderItem item : order.getItems()) {
+                        Product p = products.get(item.getProductId());
+                        if (p != null) {
+                            p.setStock(p.getStock() - item.getQuantity());
+                            metrics.stockChanged(p.getId(), p.getStock());
+                            facets.productChanged(p);
+                        }
+                    }
+                }
+                orders.put(order.getId(), order);
+                ordersByCustomer.computeIfAbsent(order.getCustomerUsername(), k -> new ArrayList<>()).add(order);
+                metrics.orderPlaced(order, this::categoryOf);
+                if (nextOrderId.get() <= order.getId()) nextOrderId.set(order.getId() + 1);
+                break;
+            }
+            case REC_COUNTERS:
+                nextProductId.set(Math.max(nextProductId.get(), in.readInt()));
+                nextOrderId.set(Math.max(nextOrderId.get(), in.readInt()));
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        out.writeUTF(user.getUsername());
+        out.writeUTF(user.getPassword());
+        out.writeUTF(user.getRole());
+        out.writeUTF(text(user.getFullName()));
+    }
+
+    private static User readUser(DataInputStream in) throws IOException {
+        return new User(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+    }
+
+    private static void writeProduct(DataOutputStream out, Product product) throws IOException {
+        out.writeInt(product.getId());
+        out.writeUTF(text(product.getName()));
+        out.writeDouble(product.getPrice());
+        out.writeInt(product.getStock());
+        out.writeUTF(text(product.getCategory()));
+        out.writeUTF(text(product.getDescription()));
+        out.writeBoolean(product.isAuction());
+    }
+
+    private static Product readProduct(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Product product = new Product(in.readUTF(), in.readDouble(), in.readInt(), in.readUTF(), in.readUTF());
+        product.setId(id);
+        product.setAuction(in.readBoolean());
+        return product;
+    }
+
+    private static void writeOrder(DataOutputStream out, Order order) throws IOException {
+        out.writeInt(order.getId());
+        out.writeUTF(order.getCustomerUsername());
+        out.writeLong(order.getOrderDate().getTime());
+        out.writeUTF(order.getStatus());
+        out.writeInt(order.getItems().size());
+        for (OrderItem item : order.getItems()) {
+            out.writeInt(item.getProductId());
+            out.writeUTF(text(item.getProductName()));
+            out.writeInt(item.getQuantity());
+            out.writeDouble(item.getUnitPrice());
+        }
+    }
+
+    private static Order readOrder(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Order order = new Order(in.readUTF());
+        order.setId(id);
+        order.setOrderDate(new Date(in.readLong()));
+        order.setStatus(in.readUTF());
+        int items = in.readInt();
+        for (int i = 0; i < items; i++) {
+            order.addItem(new OrderItem(in.readInt(), in.readUTF(), in.readInt(), in.readDouble()));
+        }
+        return order;
+    }
+
+    private static String text(String s) {
+        return s == null ? "" : s;
+    }
+}
+
+// Append-only, checksummed log of DatabaseService changes, kept in a data directory as
+//   journal-N.log    records appended since snapshot N was taken
+//   snapshot-N.snap  the complete state at the moment journal-N was started
+// Every record is framed as [int length][int CRC32 of the payload][payload]. Appends are
+// queued in memory; one writer thread writes whatever has queued up and fsyncs it as one
+// batch, so callers waiting in await() at the same time share a single fsync.
+class Journal {
+    private static final int MAX_RECORD = 16 << 20;
+    private static final int MAX_BATCH = 4096;
+
+    interface RecordHandler {
+        void apply(DataInputStream in) throws IOException;
+    }
+
+    private enum ReadResult { EOF, END, TORN }
+
+    private static final class Pending {
+        final long seq;
+        final byte[] frame;   // null for a control entry
+        final int segment;    // > 0: switch to this segment; -1: close
+        Pending(long seq, byte[] frame, int segment) {
+            this.seq = seq;
+            this.frame = frame;
+            this.segment = segment;
+        }
+    }
+
+    private final File dir;
+    private final boolean fsync;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Object appendLock = new Object();
+    private long lastSeq = 0;          // guarded by appendLock
+    private int segment = 0;           // newest segment number, guarded by appendLock
+    private long rotateSeq = 0;        // sequence of the newest segment switch, guarded by appendLock
+    private long recordsSinceRotate = 0; // guarded by appendLock
+    private boolean closed = false;    // guarded by appendLock
+    private long durableSeq = 0;       // guarded by this
+    private volatile IOException failure;
+    private Thread writer;
+
+    private FileChannel channel;       // writer thread only
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private volatile long syncCount = 0;
+    private volatile long recordCount = 0;
+
+    Journal(File dir, boolean fsync) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.fsync = fsync;
+    }
+
+    // Feeds the newest complete snapshot and then every intact log record after it to handler.
+    // Returns false if the directory held no data yet. Must be called before start().
+    boolean recover(RecordHandler handler) throws IOException {
+        TreeMap<Integer, File> snapshots = list("snapshot-", ".snap");
+        TreeMap<Integer, File> segments = list("journal-", ".log");
+        boolean found = false;
+        int from = 0;
+        for (int n : snapshots.descendingKeySet()) {
+            // A snapshot is only used if it is complete, so read it fully before applying anything
+            List<byte[]> records = new ArrayList<>();
+            if (readFrames(snapshots.get(n), records::add) == ReadResult.END) {
+                for (byte[] record : records) {
+                    handler.apply(new DataInputStream(new ByteArrayInputStream(record)));
+                }
+                from = n;
+                found = true;
+                break;
+            }
+            System.err.println("Ignoring incomplete snapshot " + snapshots.get(n));
+        }
+        long[] replayed = {0};
+        for (Map.Entry<Integer, File> e : segments.tailMap(from, true).entrySet()) {
+            ReadResult result = readFrames(e.getValue(), record -> {
+                handler.apply(new DataInputStream(new ByteArrayInputStream(record)));
+                replayed[0]++;
+            });
+            if (result != ReadResult.EOF) {
+                // A crash mid-write leaves a torn tail; nothing after it can be trusted
+                System.err.println("Journal " + e.getValue() + " ends in a damaged record; replay stopped there");
+                break;
+            }
+        }
+        found |= replayed[0] > 0;
+        segment = Math.max(snapshots.isEmpty() ? 0 : snapshots.lastKey(), segments.isEmpty() ? 0 : segments.lastKey());
+        return found;
+    }
+
+    // Opens a new segment and starts the writer thread
+    void start() throws IOException {
+        synchronized (appendLock) {
+            segment++;
+            channel = openSegment(segment);
+        }
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues a record and returns its sequence number; see await()
+    long append(byte[] payload) {
+        byte[] frame = frame(payload);
+        synchronized (appendLock) {
+            checkWritable();
+            long seq = ++lastSeq;
+            queue.add(new Pending(seq, frame, 0));
+            recordsSinceRotate++;
+            return seq;
+        }
+    }
+
+    // Records appended after this call go to a new segment, whose number is returned
+    int rotate() {
+        synchronized (appendLock) {
+            checkWritable();
+            segment++;
+            rotateSeq = ++lastSeq;
+            queue.add(new Pending(rotateSeq, null, segment));
+            recordsSinceRotate = 0;
+            return segment;
+        }
+    }
+
+    long getRecordsSinceRotate() {
+        synchronized (appendLock) {
+            return recordsSinceRotate;
+        }
+    }
+
+    long getSyncCount() { return syncCount; }
+    long getRecordCount() { return recordCount; }
+
+    // Waits until every record up to seq has been written (and fsynced, unless disabled)
+    synchronized void await(long seq) {
+        boolean interrupted = false;
+        while (durableSeq < seq) {
+            if (failure != null) {
+                throw new UncheckedIOException("Journal write failed", failure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true; // the change is already applied, so still wait for it to be durable
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes the state captured when `segment` was started, then drops everything older
+    void writeSnapshot(int segment, List<byte[]> records) throws IOException {
+        long switchSeq;
+        synchronized (appendLock) {
+            switchSeq = rotateSeq;
+        }
+        await(switchSeq); // the previous segment is complete and closed
+        File tmp = new File(dir, "snapshot-" + segment + ".tmp");
+        File target = new File(dir, "snapshot-" + segment + ".snap");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+            for (byte[] record : records) {
+                out.write(frame(record));
+            }
+            out.write(frame(new byte[0])); // end marker: a snapshot without it is incomplete
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        for (Map.Entry<Integer, File> e : list("snapshot-", ".snap").headMap(segment).entrySet()) {
+            Files.deleteIfExists(e.getValue().toPath());
+        }
+        for (Map.Entry<Integer, File> e : list("journal-", ".log").headMap(segment).entrySet()) {
+            Files.deleteIfExists(e.getValue().toPath());
+        }
+    }
+
+    // Flushes what is queued and stops the writer
+    void close() {
+        synchronized (appendLock) {
+            if (closed || writer == null) return;
+            closed = true;
+            queue.add(new Pending(++lastSeq, null, -1));
+        }
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkWritable() {
+        if (failure != null) throw new UncheckedIOException("Journal write failed", failure);
+        if (closed) throw new IllegalStateException("Journal is closed");
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            boolean stop = false;
+            try {
+                for (Pending p : batch) {
+                    if (p.frame != null) {
+                        put(p.frame);
+                        recordCount++;
+                    } else {
+                        flush();
+                        channel.close();
+                        if (p.segment < 0) {
+                            stop = true;
+                            break;
+                        }
+                        channel = openSegment(p.segment);
+                    }
+                }
+                if (!stop) flush();
+                markDurable(batch.get(batch.size() - 1).seq);
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            batch.clear();
+            if (stop) return;
+        }
+    }
+
+    private void put(byte[] frame) throws IOException {
+        if (frame.length > buffer.remaining()) {
+            drain();
+        }
+        if (frame.length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(frame));
+        } else {
+            buffer.put(frame);
+        }
+    }
+
+    private void flush() throws IOException {
+        drain();
+        if (fsync) {
+            channel.force(false);
+            syncCount++;
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    private synchronized void markDurable(long seq) {
+        durableSeq = seq;
+        notifyAll();
+    }
+
+    private FileChannel openSegment(int n) throws IOException {
+        FileChannel ch = FileChannel.open(new File(dir, "journal-" + n + ".log").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory();
+        return ch;
+    }
+
+    // Makes a newly created or renamed file's directory entry durable (best effort: not every OS allows it)
+    private void syncDirectory() {
+        try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on Windows; the rename is still atomic there
+        }
+    }
+
+    private TreeMap<Integer, File> list(String prefix, String suffix) {
+        TreeMap<Integer, File> files = new TreeMap<>();
+        File[] all = dir.listFiles();
+        if (all == null) return files;
+        for (File f : all) {
+            String name = f.getName();
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                try {
+                    files.put(Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())), f);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return frame.array();
+    }
+
+    private interface FrameSink {
+        void accept(byte[] payload) throws IOException;
+    }
+
+    // Reads frames until end of file (EOF), an end marker (END) or a short or corrupt frame (TORN)
+    private static ReadResult readFrames(File file, FrameSink sink) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            byte[] header = new byte[8];
+            while (true) {
+                int n = readUpTo(in, header, 8);
+                if (n == 0) return ReadResult.EOF;
+                if (n < 8) return ReadResult.TORN;
+                ByteBuffer h = ByteBuffer.wrap(header);
+                int length = h.getInt();
+                int checksum = h.getInt();
+                if (length == 0 && checksum == 0) return ReadResult.END;
+                if (length <= 0 || length > MAX_RECORD) return ReadResult.TORN;
+                byte[] payload = new byte[length];
+                if (readUpTo(in, payload, length) < length) return ReadResult.TORN;
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) return ReadResult.TORN;
+                sink.accept(payload);
+            }
+        }
+    }
+
+    private static int readUpTo(InputStream in, byte[] b, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, n, len - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+}
+
+// Running totals behind the dashboards, updated by DatabaseService as each change is applied
+// so reading them never scans products or orders. The low-stock count keeps the last stock
+// level it was told about for each product and adjusts by comparing against it. Stock changes
+// for one product arrive under that product's lock stripe; everything here is safe for
+// concurrent use.
+class DashboardMetrics {
+    static final int LOW_STOCK_THRESHOLD = 10;
+
+    interface CategoryLookup {
+        String categoryOf(int productId);
+    }
+
+    private static final class Day {
+        final LongAdder orders = new LongAdder();
+        final LongAdder revenueCents = new LongAdder();
+    }
+
+    private final Map<Integer, Integer> knownStock = new ConcurrentHashMap<>();
+    private final AtomicInteger lowStock = new AtomicInteger();
+    private final Map<LocalDate, Day> days = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> categoryRevenueCents = new ConcurrentHashMap<>();
+    private final LongAdder totalRevenueCents = new LongAdder();
+
+    // A product was added or updated, or its stock was taken by an order
+    void stockChanged(int productId, int stock) {
+        Integer previous = knownStock.put(productId, stock);
+        int delta = (isLow(stock) ? 1 : 0) - (previous != null && isLow(previous) ? 1 : 0);
+        if (delta != 0) lowStock.addAndGet(delta);
+    }
+
+    void productRemoved(int productId) {
+        Integer previous = knownStock.remove(productId);
+        if (previous != null && isLow(previous)) lowStock.decrementAndGet();
+    }
+
+    void orderPlaced(Order order, CategoryLookup categories) {
+        LocalDate day = Instant.ofEpochMilli(order.getOrderDate().getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+        Day stats = days.computeIfAbsent(day, k -> new Day());
+        stats.orders.increment();
+        for (OrderItem item : order.getItems()) {
+            long cents = Math.round(item.getSubtotal() * 100);
+            stats.revenueCents.add(cents);
+            totalRevenueCents.add(cents);
+            categoryRevenueCents.computeIfAbsent(categories.categoryOf(item.getProductId()), k -> new LongAdder()).add(cents);
+        }
+    }
+
+    private static boolean isLow(int stock) {
+        return stock < LOW_STOCK_THRESHOLD;
+    }
+
+    public int getLowStockCount() {
+        return lowStock.get();
+    }
+
+    public long getOrderCount(LocalDate day) {
+        Day stats = days.get(day);
+        return stats == null ? 0 : stats.orders.sum();
+    }
+
+    public double getRevenue(LocalDate day) {
+        Day stats = days.get(day);
+        return stats == null ? 0 : stats.revenueCents.sum() / 100.0;
+    }
+
+    public double getTotalRevenue() {
+        return totalRevenueCents.sum() / 100.0;
+    }
+
+    // Revenue per product category since the data began, by category name
+    public Map<String, Double> getRevenueByCategory() {
+        Map<String, Double> revenue = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : categoryRevenueCents.entrySet()) {
+            revenue.put(e.getKey(), e.getValue().sum() / 100.0);
+        }
+        return revenue;
+    }
+}
+
+// A set of non-negative ints stored the way Roaring bitmaps do it: values are grouped by their
+// high 16 bits into chunks, and a chunk is a sorted char array while it holds at most 4096
+// values and a 65536-bit bitmap once it holds more. A facet value most products have costs
+// about one bit per product, one few products have costs two bytes per member. AND and OR work
+// chunk by chunk, a word at a time on bitmaps. Not thread-safe; FacetIndex guards its bitmaps.
+class CompactBitmap {
+    private static final int ARRAY_MAX = 4096; // above this a bitmap (8 KB) is smaller than the array
+    private static final int WORDS = 1024;     // 65536 bits
+
+    private static final class Chunk {
+        final int key;   // high 16 bits shared by every value in the chunk
+        char[] values;   // sorted low 16 bits, the first `count` in use; null while `bits` is used
+        long[] bits;
+        int count;
+
+        Chunk(int key, char[] values, long[] bits, int count) {
+            this.key = key;
+            this.values = values;
+            this.bits = bits;
+            this.count = count;
+        }
+
+        boolean contains(char low) {
+            return bits != null ? (bits[low >>> 6] & (1L << low)) != 0 : Arrays.binarySearch(values, 0, count, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (bits[low >>> 6] == before) return false;
+                count++;
+                return true;
+            }
+            int at = Arrays.binarySearch(values, 0, count, low);
+            if (at >= 0) return false;
+            if (count == ARRAY_MAX) {
+                toBits();
+                return add(low);
+            }
+            at = -at - 1;
+            if (count == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, count * 2)));
+            System.arraycopy(values, at, values, at + 1, count - at);
+            values[at] = low;
+            count++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (bits[low >>> 6] == before) return false;
+                if (--count <= ARRAY_MAX / 2) toValues(); // not at ARRAY_MAX, so add/remove at the edge does not flip-flop
+                return true;
+            }
+            int at = Arrays.binarySearch(values, 0, count, low);
+            if (at < 0) return false;
+            System.arraycopy(values, at + 1, values, at, count - at - 1);
+            count--;
+            return true;
+        }
+
+        private void toBits() {
+            bits = new long[WORDS];
+            for (int i = 0; i < count; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        private void toValues() {
+            values = toChars(bits, count);
+            bits = null;
+        }
+
+        Chunk copy() {
+            return new Chunk(key, values == null ? null : Arrays.copyOf(values, count), bits == null ? null : bits.clone(), count);
+        }
+    }
 
-// Database and Service Classes
-class DatabaseService {
-    private Map<String, User> users = new HashMap<>();
-    private Map<Integer, Product> products = new HashMap<>();
-    private Map<Integer, Order> orders = new HashMap<>();
-    private int nextProductId = 1;
-    private int nextOrderId = 1;
-    private User currentUser;
+    private Chunk[] chunks = new Chunk[0]; // ascending by key, the first chunkCount in use
+    private int chunkCount;
+    private int size;
 
-    public DatabaseService() {
-        initializeSampleData();
+    public int size() {
+        return size;
     }
 
-    private void initializeSampleData() {
-        // Initialize admin and manager accounts
-        users.put("admin", new User("admin", "admin123", "admin", "Admin User"));
-        users.put("manager", new User("manager", "manager123", "manager", "Store Manager"));
-        
-        // Initialize sample products
-        addProduct(new Product("Apple", 0.99, 100, "Fruits", "Fresh red apples"));
-        addProduct(new Product("Milk", 2.49, 50, "Dairy", "Whole milk 1 gallon"));
-        addProduct(new Product("Bread", 1.99, 75, "Bakery", "Whole wheat bread"));
-        addProduct(new Product("Eggs", 3.29, 60, "Dairy", "Large eggs, dozen"));
-        addProduct(new Product("Chicken", 5.99, 30, "Meat", "Boneless chicken breast"));
+    public boolean isEmpty() {
+        return size == 0;
     }
 
-    // User management
-    public boolean register(String username, String password, String role, String fullName) {
-        if (users.containsKey(username)) return false;
-        users.put(username, new User(username, password, role, fullName));
+    public boolean contains(int value) {
+        int at = find(value >>> 16);
+        return at >= 0 && chunks[at].contains((char) value);
+    }
+
+    public boolean add(int value) {
+        int at = find(value >>> 16);
+        if (at < 0) {
+            at = -at - 1;
+            insert(at, new Chunk(value >>> 16, new char[4], null, 0));
+        }
+        if (!chunks[at].add((char) value)) return false;
+        size++;
         return true;
     }
 
-    public User login(String username, String password) {
-        User user = users.get(username);
-        if (user != null && user.getPassword().equals(password)) {
-            currentUser = user;
-            return user;
+    public boolean remove(int value) {
+        int at = find(value >>> 16);
+        if (at < 0 || !chunks[at].remove((char) value)) return false;
+        size--;
+        if (chunks[at].count == 0) {
+            System.arraycopy(chunks, at + 1, chunks, at, chunkCount - at - 1);
+            chunks[--chunkCount] = null;
         }
-        return null;
+        return true;
     }
 
-    public void logout() {
-        currentUser = null;
+    // Values in both sets, as a new set
+    public CompactBitmap and(CompactBitmap other) {
+        CompactBitmap result = new CompactBitmap();
+        for (int i = 0, j = 0; i < chunkCount && j < other.chunkCount; ) {
+            Chunk a = chunks[i], b = other.chunks[j];
+            if (a.key != b.key) {
+                if (a.key < b.key) i++; else j++;
+                continue;
+            }
+            Chunk both = and(a, b);
+            if (both.count > 0) result.append(both);
+            i++;
+            j++;
+        }
+        return result;
     }
 
-    public User getCurrentUser() {
-        return currentUser;
+    // How many values are in both sets; and(other).size() without building the set
+    public int andCardinality(CompactBitmap other) {
+        int total = 0;
+        for (int i = 0, j = 0; i < chunkCount && j < other.chunkCount; ) {
+            Chunk a = chunks[i], b = other.chunks[j];
+            if (a.key != b.key) {
+                if (a.key < b.key) i++; else j++;
+                continue;
+            }
+            if (a.bits != null && b.bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    total += Long.bitCount(a.bits[w] & b.bits[w]);
+                }
+            } else if (a.bits != null || b.bits != null) {
+                Chunk array = a.bits == null ? a : b, bitmap = a.bits == null ? b : a;
+                for (int k = 0; k < array.count; k++) {
+                    if (bitmap.contains(array.values[k])) total++;
+                }
+            } else {
+                total += intersect(a, b, null);
+            }
+            i++;
+            j++;
+        }
+        return total;
     }
 
-    // Product management
-    public void addProduct(Product product) {
-        product.setId(nextProductId++);
-        products.put(product.getId(), product);
+    // Values in either set, as a new set
+    public CompactBitmap or(CompactBitmap other) {
+        CompactBitmap result = new CompactBitmap();
+        int i = 0, j = 0;
+        while (i < chunkCount || j < other.chunkCount) {
+            Chunk a = i < chunkCount ? chunks[i] : null, b = j < other.chunkCount ? other.chunks[j] : null;
+            if (b == null || (a != null && a.key < b.key)) {
+                result.append(a.copy());
+                i++;
+            } else if (a == null || b.key < a.key) {
+                result.append(b.copy());
+                j++;
+            } else {
+                result.append(or(a, b));
+                i++;
+                j++;
+            }
+        }
+        return result;
     }
 
-    public boolean updateProduct(Product product) {
-        if (!products.containsKey(product.getId())) return false;
-        products.put(product.getId(), product);
-        return true;
+    public CompactBitmap copy() {
+        CompactBitmap result = new CompactBitmap();
+        for (int i = 0; i < chunkCount; i++) {
+            result.append(chunks[i].copy());
+        }
+        return result;
     }
 
-    public boolean deleteProduct(int productId) {
-        return products.remove(productId) != null;
+    // Every value, ascending
+    public int[] toArray() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            Chunk chunk = chunks[i];
+            int high = chunk.key << 16;
+            if (chunk.bits == null) {
+                for (int k = 0; k < chunk.count; k++) {
+                    result[n++] = high | chunk.values[k];
+                }
+            } else {
+                for (int w = 0; w < WORDS; w++) {
+                    for (long word = chunk.bits[w]; word != 0; word &= word - 1) {
+                        result[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                    }
+                }
+            }
+        }
+        return result;
     }
 
-    public List<Product> getAllProducts() {
-        return new ArrayList<>(products.values());
+    // Bytes held by the chunks, for the Diagnostics tab
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunks[i].bits != null ? WORDS * 8L : chunks[i].values.length * 2L;
+        }
+        return bytes;
     }
 
-    public Product getProductById(int id) {
-        return products.get(id);
+    private static Chunk and(Chunk a, Chunk b) {
+        if (a.bits != null && b.bits != null) {
+            long[] bits = new long[WORDS];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                bits[w] = a.bits[w] & b.bits[w];
+                count += Long.bitCount(bits[w]);
+            }
+            return count > ARRAY_MAX ? new Chunk(a.key, null, bits, count) : new Chunk(a.key, toChars(bits, count), null, count);
+        }
+        if (a.bits != null || b.bits != null) {
+            Chunk array = a.bits == null ? a : b, bitmap = a.bits == null ? b : a;
+            char[] values = new char[array.count];
+            int count = 0;
+            for (int k = 0; k < array.count; k++) {
+                if (bitmap.contains(array.values[k])) values[count++] = array.values[k];
+            }
+            return new Chunk(a.key, values, null, count);
+        }
+        char[] values = new char[Math.min(a.count, b.count)];
+        return new Chunk(a.key, values, null, intersect(a, b, values));
     }
 
-    // Order management
-    public void placeOrder(Order order) {
-        order.setId(nextOrderId++);
-        order.setOrderDate(new Date());
-        orders.put(order.getId(), order);
-        
-        // Update inventory
-        for (OrderItem item : order.getItems()) {
-            Product p = products.get(item.getProductId());
-            p.setStock(p.getStock() - item.getQuantity());
+    // Merge-intersects two array chunks, writing the common values to `into` unless it is null
+    private static int intersect(Chunk a, Chunk b, char[] into) {
+        int count = 0;
+        for (int i = 0, j = 0; i < a.count && j < b.count; ) {
+            char x = a.values[i], y = b.values[j];
+            if (x < y) {
+                i++;
+            } else if (y < x) {
+                j++;
+            } else {
+                if (into != null) into[count] = x;
+                count++;
+                i++;
+                j++;
+            }
         }
+        return count;
     }
 
-    public List<Order> getOrdersForUser(String username) {
-        List<Order> userOrders = new ArrayList<>();
-        for (Order order : orders.values()) {
-            if (order.getCustomerUsername().equals(username)) {
-                userOrders.add(order);
+    private static Chunk or(Chunk a, Chunk b) {
+        if (a.bits != null || b.bits != null || a.count + b.count > ARRAY_MAX) {
+            long[] bits = new long[WORDS];
+            for (Chunk c : new Chunk[]{a, b}) {
+                if (c.bits != null) {
+                    for (int w = 0; w < WORDS; w++) bits[w] |= c.bits[w];
+                } else {
+                    for (int k = 0; k < c.count; k++) bits[c.values[k] >>> 6] |= 1L << c.values[k];
+                }
+            }
+            int count = 0;
+            for (long word : bits) count += Long.bitCount(word);
+            return count > ARRAY_MAX ? new Chunk(a.key, null, bits, count) : new Chunk(a.key, toChars(bits, count), null, count);
+        }
+        char[] values = new char[a.count + b.count];
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < a.count || j < b.count) {
+            char next;
+            if (j >= b.count || (i < a.count && a.values[i] < b.values[j])) {
+                next = a.values[i++];
+            } else if (i >= a.count || b.values[j] < a.values[i]) {
+                next = b.values[j++];
+            } else {
+                next = a.values[i++];
+                j++;
             }
+            values[count++] = next;
         }
-        return userOrders;
+        return new Chunk(a.key, values, null, count);
     }
 
-    public List<Order> getAllOrders() {
-        return new ArrayList<>(orders.values());
+    private static char[] toChars(long[] bits, int count) {
+        char[] values = new char[count];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+            }
+        }
+        return values;
     }
 
-    // User management for admin
-    public List<User> getAllUsers() {
-        return new ArrayList<>(users.values());
+    private int find(int key) {
+        int lo = 0, hi = chunkCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = chunks[mid].key;
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
     }
 
-    public boolean updateUser(User user) {
-        if (!users.containsKey(user.getUsername())) return false;
-        users.put(user.getUsername(), user);
-        return true;
+    private void insert(int at, Chunk chunk) {
+        if (chunkCount == chunks.length) chunks = Arrays.copyOf(chunks, Math.max(4, chunkCount * 2));
+        System.arraycopy(chunks, at, chunks, at + 1, chunkCount - at);
+        chunks[at] = chunk;
+        chunkCount++;
     }
 
-    public boolean deleteUser(String username) {
-        if (username.equals("admin") || username.equals("manager")) return false;
-        return users.remove(username) != null;
+    // Adds a chunk whose key is above every key so far; used while building results
+    private void append(Chunk chunk) {
+        insert(chunkCount, chunk);
+        size += chunk.count;
+    }
+}
+
+// Facets for narrowing the product list: category, price band, auction or fixed price, and
+// whether it is in stock. Every facet value keeps a CompactBitmap of the product ids that have
+// it, updated as products change, so a filter is an OR of bitmaps within each facet and an AND
+// across facets, and a count is an AND cardinality, never a walk over the products. Like
+// DashboardMetrics it is told about every change by DatabaseService and is safe for concurrent use.
+class FacetIndex {
+    enum Facet {
+        CATEGORY("Category"), PRICE("Price"), TYPE("Type"), AVAILABILITY("Availability");
+
+        final String label;
+
+        Facet(String label) {
+            this.label = label;
+        }
+    }
+
+    // Upper bounds of the price bands; the last band is open-ended
+    static final double[] PRICE_BANDS = {5, 20, 100, 500};
+    static final String AUCTION = "Auction";
+    static final String FIXED_PRICE = "Fixed price";
+    static final String IN_STOCK = "In stock";
+    static final String OUT_OF_STOCK = "Out of stock";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CompactBitmap all = new CompactBitmap();
+    private final Map<Facet, Map<String, CompactBitmap>> bitmaps = new EnumMap<>(Facet.class);
+    private final Map<Integer, String[]> known = new ConcurrentHashMap<>(); // product id -> its value per facet, by ordinal
+
+    FacetIndex() {
+        bitmaps.put(Facet.CATEGORY, new TreeMap<>());
+        Map<String, CompactBitmap> bands = new LinkedHashMap<>();
+        for (String label : BAND_LABELS) {
+            bands.put(label, new CompactBitmap());
+        }
+        bitmaps.put(Facet.PRICE, bands);
+        Map<String, CompactBitmap> types = new LinkedHashMap<>();
+        types.put(FIXED_PRICE, new CompactBitmap());
+        types.put(AUCTION, new CompactBitmap());
+        bitmaps.put(Facet.TYPE, types);
+        Map<String, CompactBitmap> availability = new LinkedHashMap<>();
+        availability.put(IN_STOCK, new CompactBitmap());
+        availability.put(OUT_OF_STOCK, new CompactBitmap());
+        bitmaps.put(Facet.AVAILABILITY, availability);
+    }
+
+    private static final String[] BAND_LABELS = new String[PRICE_BANDS.length + 1];
+
+    static {
+        BAND_LABELS[0] = String.format("Under $%.0f", PRICE_BANDS[0]);
+        for (int i = 1; i < PRICE_BANDS.length; i++) {
+            BAND_LABELS[i] = String.format("$%.0f - $%.0f", PRICE_BANDS[i - 1], PRICE_BANDS[i]);
+        }
+        BAND_LABELS[PRICE_BANDS.length] = String.format("$%.0f and over", PRICE_BANDS[PRICE_BANDS.length - 1]);
+    }
+
+    static String priceBand(double price) {
+        int band = 0;
+        while (band < PRICE_BANDS.length && price >= PRICE_BANDS[band]) band++;
+        return BAND_LABELS[band];
+    }
+
+    // A product was added or updated, or its stock changed; only facets whose value moved are touched.
+    // Changes to one product arrive under its lock stripe, so when none of its values moved (most
+    // orders) this returns without taking the lock every product shares.
+    void productChanged(Product product) {
+        String[] values = {
+            product.getCategory() == null ? "" : product.getCategory(),
+            priceBand(product.getPrice()),
+            product.isAuction() ? AUCTION : FIXED_PRICE,
+            product.getStock() > 0 ? IN_STOCK : OUT_OF_STOCK
+        };
+        int id = product.getId();
+        if (Arrays.equals(known.get(id), values)) return;
+        lock.writeLock().lock();
+        try {
+            String[] previous = known.put(id, values);
+            all.add(id);
+            for (Facet facet : Facet.values()) {
+                String before = previous == null ? null : previous[facet.ordinal()];
+                String after = values[facet.ordinal()];
+                if (after.equals(before)) continue;
+                if (before != null) remove(facet, before, id);
+                bitmaps.get(facet).computeIfAbsent(after, k -> new CompactBitmap()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void productRemoved(int productId) {
+        lock.writeLock().lock();
+        try {
+            String[] previous = known.remove(productId);
+            if (previous == null) return;
+            all.remove(productId);
+            for (Facet facet : Facet.values()) {
+                remove(facet, previous[facet.ordinal()], productId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(Facet facet, String value, int productId) {
+        Map<String, CompactBitmap> values = bitmaps.get(facet);
+        CompactBitmap ids = values.get(value);
+        ids.remove(productId);
+        if (ids.isEmpty() && facet == Facet.CATEGORY) values.remove(value); // the fixed facets keep their values
+    }
+
+    // Ids of the products matching every facet in `selected`, where a facet matches if the product
+    // has any of its selected values. Facets with nothing selected do not filter.
+    public CompactBitmap filter(Map<Facet, Set<String>> selected) {
+        lock.readLock().lock();
+        try {
+            return match(selected, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // For every value of every facet, how many products would match if it were added to the
+    // selection: the usual faceted-search count, which ignores the facet's own other choices.
+    public Map<Facet, Map<String, Integer>> counts(Map<Facet, Set<String>> selected) {
+        Map<Facet, Map<String, Integer>> counts = new EnumMap<>(Facet.class);
+        lock.readLock().lock();
+        try {
+            for (Facet facet : Facet.values()) {
+                CompactBitmap others = match(selected, facet);
+                Map<String, Integer> values = new LinkedHashMap<>();
+                for (Map.Entry<String, CompactBitmap> e : bitmaps.get(facet).entrySet()) {
+                    values.put(e.getKey(), others == null ? e.getValue().size() : e.getValue().andCardinality(others));
+                }
+                counts.put(facet, values);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    // Called with the read lock held. Returns null for "everything" when nothing filters and
+    // `skip` is set, so counts can use the value bitmaps' sizes directly.
+    private CompactBitmap match(Map<Facet, Set<String>> selected, Facet skip) {
+        CompactBitmap result = null;
+        for (Facet facet : Facet.values()) {
+            Set<String> values = selected.get(facet);
+            if (facet == skip || values == null || values.isEmpty()) continue;
+            CompactBitmap any = new CompactBitmap();
+            for (String value : values) {
+                CompactBitmap ids = bitmaps.get(facet).get(value);
+                if (ids != null) any = any.or(ids);
+            }
+            result = result == null ? any : result.and(any);
+        }
+        if (result == null && skip == null) return all.copy();
+        return result;
+    }
+
+    public int getProductCount() {
+        lock.readLock().lock();
+        try {
+            return all.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bytes held by all the bitmaps
+    public long sizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = all.sizeInBytes();
+            for (Map<String, CompactBitmap> values : bitmaps.values()) {
+                for (CompactBitmap ids : values.values()) bytes += ids.sizeInBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 }
 
+// Counters and latency histograms for the hot paths, shown in the admin Diagnostics tab.
+// Recording never locks: a counter is a LongAdder and a latency sample is one atomic add into a
+// fixed bucket array. This is the part of MarketplaceApp.MetricsRegistry (Updated_MarkeplaceApp)
+// that the tab needs; the JMX and HTTP export stay in that app only.
+class MetricsRegistry {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    Latency latency(String name) {
+        return latencies.computeIfAbsent(name, k -> new Latency());
+    }
+
+    // Log-linear latency histogram in the style of HdrHistogram. Values below 2^SUB_BITS ns are
+    // counted exactly; above that each power of two is split into 2^SUB_BITS equal buckets, so a
+    // reported percentile is never more than about 3% above the true value.
+    static final class Latency {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT; // covers every non-negative long
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(bucketOf(nanos));
+            totalNanos.add(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // another thread raised the max first; re-check against its value
+            }
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_COUNT) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return ((shift + 1) << SUB_BITS) + (int) (value >>> shift) - SUB_COUNT;
+        }
+
+        // Largest value that lands in the bucket, so percentiles err on the high side
+        private static long highestIn(int bucket) {
+            if (bucket < SUB_COUNT) return bucket;
+            int shift = (bucket >>> SUB_BITS) - 1;
+            long lowest = (long) ((bucket & (SUB_COUNT - 1)) + SUB_COUNT) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        Summary summary() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long max = maxNanos.get();
+            return new Summary(total, total == 0 ? 0 : totalNanos.sum() / (double) total,
+                    valueAt(counts, total, 0.50, max), valueAt(counts, total, 0.90, max),
+                    valueAt(counts, total, 0.99, max), valueAt(counts, total, 0.999, max), max);
+        }
+
+        private static long valueAt(long[] counts, long total, double quantile, long max) {
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestIn(i), max);
+            }
+            return max;
+        }
+    }
+
+    // A point-in-time view of one histogram; times are in nanoseconds.
+    static final class Summary {
+        final long count;
+        final double mean;
+        final long p50, p90, p99, p999, max;
+
+        Summary(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+    }
+
+    Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, adder) -> values.put(name, adder.sum()));
+        return values;
+    }
+
+    Map<String, Summary> latencySummaries() {
+        Map<String, Summary> values = new TreeMap<>();
+        latencies.forEach((name, latency) -> values.put(name, latency.summary()));
+        return values;
+    }
+
+    // The registry as a table for a diagnostics screen; call refresh() on the EDT to update it.
+    static final class TableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Metric", "Count", "Mean (ms)", "p50 (ms)", "p90 (ms)", "p99 (ms)", "p99.9 (ms)", "Max (ms)"};
+
+        private final MetricsRegistry registry;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        TableModel(MetricsRegistry registry) {
+            this.registry = registry;
+            refresh();
+        }
+
+        void refresh() {
+            rows.clear();
+            for (Map.Entry<String, Summary> e : registry.latencySummaries().entrySet()) {
+                Summary s = e.getValue();
+                rows.add(new Object[]{e.getKey(), s.count, millis(s.mean), millis(s.p50), millis(s.p90),
+                        millis(s.p99), millis(s.p999), millis(s.max)});
+            }
+            for (Map.Entry<String, Long> e : registry.counterValues().entrySet()) {
+                rows.add(new Object[]{e.getKey(), e.getValue(), "", "", "", "", "", ""});
+            }
+            fireTableDataChanged();
+        }
+
+        private static String millis(double nanos) {
+            return String.format("%.3f", nanos / 1e6);
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+    }
+}
 // Model Classes
 class User {
     private String username;
@@ -181,9 +1912,10 @@ class Product {
     private int id;
     private String name;
     private double price;
-    private int stock;
+    private volatile int stock; // written under DatabaseService's lock stripe, read by any thread
     private String category;
     private String description;
+    private boolean auction; // sold by auction rather than at a fixed price
 
     public Product(String name, double price, int stock, String category, String description) {
         this.name = name;
@@ -200,6 +1932,7 @@ class Product {
     public int getStock() { return stock; }
     public String getCategory() { return category; }
     public String getDescription() { return description; }
+    public boolean isAuction() { return auction; }
     
     public void setId(int id) { this.id = id; }
     public void setName(String name) { this.name = name; }
@@ -207,6 +1940,7 @@ class Product {
     public void setStock(int stock) { this.stock = stock; }
     public void setCategory(String category) { this.category = category; }
     public void setDescription(String description) { this.description = description; }
+    public void setAuction(boolean auction) { this.auction = auction; }
 }
 
 class Order {
@@ -215,6 +1949,7 @@ class Order {
     private Date orderDate;
     private List<OrderItem> items;
     private String status;
+    private double total; // kept up to date by addItem(), so tables and dashboards do not re-sum
 
     public Order(String customerUsername) {
         this.customerUsername = customerUsername;
@@ -226,15 +1961,9 @@ class Order {
     public int getId() { return id; }
     public String getCustomerUsername() { return customerUsername; }
     public Date getOrderDate() { return orderDate; }
-    public List<OrderItem> getItems() { return items; }
+    public List<OrderItem> getItems() { return Collections.unmodifiableList(items); } // add through addItem()
     public String getStatus() { return status; }
-    public double getTotal() {
-        double total = 0;
-        for (OrderItem item : items) {
-            total += item.getSubtotal();
-        }
-        return total;
-    }
+    public double getTotal() { return total; }
     
     public void setId(int id) { this.id = id; }
     public void setOrderDate(Date orderDate) { this.orderDate = orderDate; }
@@ -242,6 +1971,7 @@ class Order {
     
     public void addItem(OrderItem item) {
         items.add(item);
+        total += item.getSubtotal();
     }
 }
 
@@ -266,6 +1996,144 @@ class OrderItem {
     public double getSubtotal() { return quantity * unitPrice; }
 }
 
+// Table Models
+// Rows are read from DatabaseService only when the JTable asks for them, i.e. for the rows
+// on screen, and cells are formatted at that point. The model starts with one page of rows
+// and exposes the next page whenever the user scrolls near the bottom.
+abstract class LazyTableModel<T> extends AbstractTableModel {
+    private static final int FETCH_AHEAD_PIXELS = 200;
+
+    private final String[] columns;
+    private final int pageSize;
+    private int loadedRows;
+
+    LazyTableModel(String[] columns, int pageSize) {
+        this.columns = columns;
+        this.pageSize = pageSize;
+    }
+
+    protected abstract int totalRows();
+    protected abstract T rowAt(int row);
+    protected abstract Object valueOf(T item, int column);
+
+    public int getRowCount() { return loadedRows; }
+    public int getColumnCount() { return columns.length; }
+    public String getColumnName(int column) { return columns[column]; }
+
+    public Object getValueAt(int row, int column) {
+        T item = rowAt(row);
+        return item == null ? null : valueOf(item, column);
+    }
+
+    // Back to the first page, e.g. after the data changed
+    public void reload() {
+        loadedRows = Math.min(pageSize, totalRows());
+        fireTableDataChanged();
+    }
+
+    public boolean loadNextPage() {
+        int total = totalRows();
+        if (loadedRows >= total) return false;
+        int first = loadedRows;
+        loadedRows = Math.min(total, loadedRows + pageSize);
+        fireTableRowsInserted(first, loadedRows - 1);
+        return true;
+    }
+
+    public void installFetchOnScroll(JScrollPane scrollPane) {
+        BoundedRangeModel scroll = scrollPane.getVerticalScrollBar().getModel();
+        scroll.addChangeListener(e -> {
+            if (scroll.getValue() + scroll.getExtent() >= scroll.getMaximum() - FETCH_AHEAD_PIXELS) {
+                loadNextPage();
+            }
+        });
+    }
+}
+
+class ProductTableModel extends LazyTableModel<Product> {
+    private final DatabaseService db;
+    private int[] ids = new int[0];
+    private Map<FacetIndex.Facet, Set<String>> selection = Collections.emptyMap(); // facet filters, empty shows all
+
+    public ProductTableModel(DatabaseService db) {
+        super(new String[]{"ID", "Name", "Price", "Stock", "Category", "Type"}, 200);
+        this.db = db;
+        reload();
+    }
+
+    public void setSelection(Map<FacetIndex.Facet, Set<String>> selection) {
+        this.selection = selection;
+        reload();
+    }
+
+    @Override
+    public void reload() {
+        ids = selection.isEmpty() ? db.getProductIds() : db.getProductIds(selection);
+        super.reload();
+    }
+
+    public int getMatchCount() {
+        return ids.length;
+    }
+
+    // The product id of a row, straight from the snapshot
+    public int getProductIdAt(int row) {
+        return ids[row];
+    }
+
+    protected int totalRows() { return ids.length; }
+    protected Product rowAt(int row) { return db.getProductById(ids[row]); }
+
+    protected Object valueOf(Product p, int column) {
+        switch (column) {
+            case 0: return p.getId();
+            case 1: return p.getName();
+            case 2: return String.format("$%.2f", p.getPrice());
+            case 3: return p.getStock();
+            case 4: return p.getCategory();
+            default: return p.isAuction() ? FacetIndex.AUCTION : FacetIndex.FIXED_PRICE;
+        }
+    }
+}
+
+class OrderTableModel extends LazyTableModel<Order> {
+    private final DatabaseService db;
+    private final String customer; // null means every customer's orders
+    private int[] ids = new int[0]; // the rows, taken at reload() so a row never points past the data
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm");
+
+    public OrderTableModel(DatabaseService db, String customer) {
+        super(new String[]{"Order ID", "Date", "Customer", "Total", "Status"}, 200);
+        this.db = db;
+        this.customer = customer;
+        reload();
+    }
+
+    @Override
+    public void reload() {
+        ids = customer == null ? db.getOrderIds() : db.getOrderIdsForUser(customer);
+        super.reload();
+    }
+
+    // The order id of a row, straight from the snapshot
+    public int getOrderIdAt(int row) {
+        return ids[row];
+    }
+
+    protected int totalRows() { return ids.length; }
+    protected Order rowAt(int row) { return db.getOrderById(ids[row]); }
+
+    protected Object valueOf(Order order, int column) {
+        switch (column) {
+            case 0: return order.getId();
+            case 1: return dateFormat.format(order.getOrderDate());
+            case 2: return order.getCustomerUsername();
+            case 3: return String.format("$%.2f", order.getTotal());
+            default: return order.getStatus();
+        }
+    }
+}
+
 // GUI Classes
 class LoginFrame extends JFrame {
     private DatabaseService db;
@@ -529,6 +2397,7 @@ class MainFrame extends JFrame {
         
         if (currentUser.getRole().equals("admin")) {
             tabbedPane.addTab("User Management", createUserManagementPanel());
+            tabbedPane.addTab("Diagnostics", createDiagnosticsPanel());
         }
 
         add(tabbedPane);
@@ -582,9 +2451,11 @@ class MainFrame extends JFrame {
                     "• Sales Reports\n" +
                     "• System Configuration\n\n" +
                     "Quick Stats:\n" +
-                    "Total Products: " + db.getAllProducts().size() + "\n" +
-                    "Total Orders: " + db.getAllOrders().size() + "\n" +
-                    "Total Users: " + db.getAllUsers().size());
+                    "Total Products: " + db.getProductCount() + "\n" +
+                    "Total Orders: " + db.getOrderCount() + "\n" +
+                    "Total Users: " + db.getUserCount() + "\n" +
+                    String.format("Total Revenue: $%.2f%n", db.getMetrics().getTotalRevenue()) +
+                    getRevenueByCategorySummary());
         } else if (currentUser.getRole().equals("manager")) {
             dashboardContent.setText("MANAGER DASHBOARD\n\n" +
                     "• Inventory Status\n" +
@@ -592,9 +2463,11 @@ class MainFrame extends JFrame {
                     "• Supplier Management\n" +
                     "• Staff Scheduling\n\n" +
                     "Quick Stats:\n" +
-                    "Total Products: " + db.getAllProducts().size() + "\n" +
+                    "Total Products: " + db.getProductCount() + "\n" +
                     "Orders Today: " + getTodaysOrderCount() + "\n" +
-                    "Low Stock Items: " + getLowStockCount());
+                    String.format("Revenue Today: $%.2f%n", db.getMetrics().getRevenue(LocalDate.now())) +
+                    "Low Stock Items: " + getLowStockCount() + "\n" +
+                    getRevenueByCategorySummary());
         } else {
             dashboardContent.setText("CUSTOMER DASHBOARD\n\n" +
                     "• Browse Products\n" +
@@ -612,20 +2485,8 @@ class MainFrame extends JFrame {
         JPanel panel = new JPanel(new BorderLayout());
         
         // Product table
-        String[] columnNames = {"ID", "Name", "Price", "Stock", "Category"};
-        List<Product> products = db.getAllProducts();
-        Object[][] data = new Object[products.size()][5];
-        
-        for (int i = 0; i < products.size(); i++) {
-            Product p = products.get(i);
-            data[i][0] = p.getId();
-            data[i][1] = p.getName();
-            data[i][2] = String.format("$%.2f", p.getPrice());
-            data[i][3] = p.getStock();
-            data[i][4] = p.getCategory();
-        }
-        
-        JTable productTable = new JTable(data, columnNames);
+        ProductTableModel productModel = new ProductTableModel(db);
+        JTable productTable = new JTable(productModel);
         productTable.setFillsViewportHeight(true);
         
         // Add table selection listener for product details
@@ -633,7 +2494,7 @@ class MainFrame extends JFrame {
             if (!e.getValueIsAdjusting()) {
                 int row = productTable.getSelectedRow();
                 if (row >= 0) {
-                    int productId = (int) productTable.getValueAt(row, 0);
+                    int productId = productModel.getProductIdAt(productTable.convertRowIndexToModel(row));
                     showProductDetails(productId);
                 }
             }
@@ -647,7 +2508,7 @@ class MainFrame extends JFrame {
             addToCartButton.addActionListener(e -> {
                 int row = productTable.getSelectedRow();
                 if (row >= 0) {
-                    int productId = (int) productTable.getValueAt(row, 0);
+                    int productId = productModel.getProductIdAt(productTable.convertRowIndexToModel(row));
                     addToCart(productId);
                 } else {
                     JOptionPane.showMessageDialog(this, "Please select a product first!");
@@ -665,7 +2526,7 @@ class MainFrame extends JFrame {
             editProductButton.addActionListener(e -> {
                 int row = productTable.getSelectedRow();
                 if (row >= 0) {
-                    int productId = (int) productTable.getValueAt(row, 0);
+                    int productId = productModel.getProductIdAt(productTable.convertRowIndexToModel(row));
                     showEditProductDialog(productId);
                 } else {
                     JOptionPane.showMessageDialog(this, "Please select a product first!");
@@ -674,7 +2535,7 @@ class MainFrame extends JFrame {
             deleteProductButton.addActionListener(e -> {
                 int row = productTable.getSelectedRow();
                 if (row >= 0) {
-                    int productId = (int) productTable.getValueAt(row, 0);
+                    int productId = productModel.getProductIdAt(productTable.convertRowIndexToModel(row));
                     deleteProduct(productId);
                 } else {
                     JOptionPane.showMessageDialog(this, "Please select a product first!");
@@ -686,12 +2547,63 @@ class MainFrame extends JFrame {
             buttonPanel.add(deleteProductButton);
         }
         
-        panel.add(new JScrollPane(productTable), BorderLayout.CENTER);
+        JScrollPane productScrollPane = new JScrollPane(productTable);
+        productModel.installFetchOnScroll(productScrollPane);
+        panel.add(createFilterPanel(productModel), BorderLayout.NORTH);
+        panel.add(productScrollPane, BorderLayout.CENTER);
         panel.add(buttonPanel, BorderLayout.SOUTH);
         
         return panel;
     }
 
+    // One row of check boxes per facet. Values ticked in one facet are ORed, facets are ANDed,
+    // and each box shows how many products ticking it would leave.
+    private JPanel createFilterPanel(ProductTableModel productModel) {
+        JPanel filterPanel = new JPanel();
+        filterPanel.setLayout(new BoxLayout(filterPanel, BoxLayout.Y_AXIS));
+        Map<FacetIndex.Facet, Set<String>> selection = new EnumMap<>(FacetIndex.Facet.class);
+        Runnable[] refresh = new Runnable[1];
+        refresh[0] = () -> {
+            filterPanel.removeAll();
+            Map<FacetIndex.Facet, Map<String, Integer>> counts = db.getFacetCounts(selection);
+            for (FacetIndex.Facet facet : FacetIndex.Facet.values()) {
+                Set<String> chosen = selection.getOrDefault(facet, Collections.emptySet());
+                JPanel row = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+                row.add(new JLabel(facet.label + ":"));
+                for (Map.Entry<String, Integer> value : counts.get(facet).entrySet()) {
+                    String name = value.getKey();
+                    JCheckBox box = new JCheckBox((name.isEmpty() ? "(none)" : name) + " (" + value.getValue() + ")", chosen.contains(name));
+                    box.setEnabled(chosen.contains(name) || value.getValue() > 0);
+                    box.addActionListener(e -> {
+                        Set<String> values = selection.computeIfAbsent(facet, k -> new HashSet<>());
+                        if (box.isSelected()) values.add(name); else values.remove(name);
+                        selection.values().removeIf(Set::isEmpty);
+                        productModel.setSelection(selection);
+                        refresh[0].run();
+                    });
+                    row.add(box);
+                }
+                filterPanel.add(row);
+            }
+
+            JPanel summary = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+            summary.add(new JLabel("Showing " + productModel.getMatchCount() + " of " + db.getProductCount() + " products"));
+            JButton clearButton = new JButton("Clear Filters");
+            clearButton.setEnabled(!selection.isEmpty());
+            clearButton.addActionListener(e -> {
+                selection.clear();
+                productModel.setSelection(selection);
+                refresh[0].run();
+            });
+            summary.add(clearButton);
+            filterPanel.add(summary);
+            filterPanel.revalidate();
+            filterPanel.repaint();
+        };
+        refresh[0].run();
+        return filterPanel;
+    }
+
     private JPanel createCartPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         // Implementation for shopping cart
@@ -702,28 +2614,14 @@ class MainFrame extends JFrame {
     private JPanel createOrdersPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         
-        List<Order> orders;
+        OrderTableModel orderModel;
         if (currentUser.getRole().equals("customer")) {
-            orders = db.getOrdersForUser(currentUser.getUsername());
+            orderModel = new OrderTableModel(db, currentUser.getUsername());
         } else {
-            orders = db.getAllOrders();
-        }
-        
-        String[] columnNames = {"Order ID", "Date", "Customer", "Total", "Status"};
-        Object[][] data = new Object[orders.size()][5];
-        
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm");
-        
-        for (int i = 0; i < orders.size(); i++) {
-            Order order = orders.get(i);
-            data[i][0] = order.getId();
-            data[i][1] = dateFormat.format(order.getOrderDate());
-            data[i][2] = order.getCustomerUsername();
-            data[i][3] = String.format("$%.2f", order.getTotal());
-            data[i][4] = order.getStatus();
+            orderModel = new OrderTableModel(db, null);
         }
         
-        JTable orderTable = new JTable(data, columnNames);
+        JTable orderTable = new JTable(orderModel);
         orderTable.setFillsViewportHeight(true);
         
         // Add table selection listener for order details
@@ -731,7 +2629,7 @@ class MainFrame extends JFrame {
             if (!e.getValueIsAdjusting()) {
                 int row = orderTable.getSelectedRow();
                 if (row >= 0) {
-                    int orderId = (int) orderTable.getValueAt(row, 0);
+                    int orderId = orderModel.getOrderIdAt(orderTable.convertRowIndexToModel(row));
                     showOrderDetails(orderId);
                 }
             }
@@ -751,7 +2649,7 @@ class MainFrame extends JFrame {
             updateStatusButton.addActionListener(e -> {
                 int row = orderTable.getSelectedRow();
                 if (row >= 0) {
-                    int orderId = (int) orderTable.getValueAt(row, 0);
+                    int orderId = orderModel.getOrderIdAt(orderTable.convertRowIndexToModel(row));
                     updateOrderStatus(orderId);
                 } else {
                     JOptionPane.showMessageDialog(this, "Please select an order first!");
@@ -760,7 +2658,9 @@ class MainFrame extends JFrame {
             buttonPanel.add(updateStatusButton);
         }
         
-        panel.add(new JScrollPane(orderTable), BorderLayout.CENTER);
+        JScrollPane orderScrollPane = new JScrollPane(orderTable);
+        orderModel.installFetchOnScroll(orderScrollPane);
+        panel.add(orderScrollPane, BorderLayout.CENTER);
         panel.add(buttonPanel, BorderLayout.SOUTH);
         
         return panel;
@@ -773,6 +2673,27 @@ class MainFrame extends JFrame {
         return panel;
     }
 
+    // Call counts and latency percentiles from the DatabaseService, refreshed every second while shown
+    private JPanel createDiagnosticsPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        MetricsRegistry.TableModel model = new MetricsRegistry.TableModel(db.getRegistry());
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        javax.swing.Timer refresh = new javax.swing.Timer(1000, e -> {
+            if (panel.isShowing()) model.refresh();
+        });
+        refresh.start();
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refresh.stop(); // logout disposes this frame
+            }
+        });
+        return panel;
+    }
+
     private JPanel createUserManagementPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         
@@ -827,29 +2748,32 @@ class MainFrame extends JFrame {
     }
 
     // Helper methods for various operations
-    private int getTodaysOrderCount() {
-        // Simplified - in real app would filter by date
-        return db.getAllOrders().size();
+    private long getTodaysOrderCount() {
+        return db.getMetrics().getOrderCount(LocalDate.now());
     }
 
     private int getLowStockCount() {
-        int count = 0;
-        for (Product p : db.getAllProducts()) {
-            if (p.getStock() < 10) count++;
+        return db.getMetrics().getLowStockCount();
+    }
+
+    private String getRevenueByCategorySummary() {
+        StringBuilder sb = new StringBuilder("\nRevenue by Category:\n");
+        Map<String, Double> revenue = db.getMetrics().getRevenueByCategory();
+        if (revenue.isEmpty()) return sb.append("  (no sales yet)").toString();
+        for (Map.Entry<String, Double> e : revenue.entrySet()) {
+            sb.append(String.format("  %-15s $%.2f%n", e.getKey(), e.getValue()));
         }
-        return count;
+        return sb.toString();
     }
 
     private String getCustomerOrderSummary() {
-        List<Order> orders = db.getOrdersForUser(currentUser.getUsername());
+        List<Order> orders = db.getRecentOrdersForUser(currentUser.getUsername(), 3);
         if (orders.isEmpty()) return "No recent orders";
         
         SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy");
         StringBuilder sb = new StringBuilder();
         
-        int maxOrders = Math.min(3, orders.size());
-        for (int i = 0; i < maxOrders; i++) {
-            Order order = orders.get(i);
+        for (Order order : orders) {
             sb.append(String.format("#%d - %s - $%.2f - %s\n", 
                 order.getId(), 
                 dateFormat.format(order.getOrderDate()), 
@@ -857,8 +2781,9 @@ class MainFrame extends JFrame {
                 order.getStatus()));
         }
         
-        if (orders.size() > 3) {
-            sb.append("... and " + (orders.size() - 3) + " more");
+        int totalOrders = db.getOrderCountForUser(currentUser.getUsername());
+        if (totalOrders > 3) {
+            sb.append("... and " + (totalOrders - 3) + " more");
         }
         
         return sb.toString();
@@ -892,13 +2817,14 @@ class MainFrame extends JFrame {
     }
 
     private void showAddProductDialog() {
-        JPanel panel = new JPanel(new GridLayout(5, 2, 5, 5));
+        JPanel panel = new JPanel(new GridLayout(6, 2, 5, 5));
         
         JTextField nameField = new JTextField();
         JTextField priceField = new JTextField();
         JTextField stockField = new JTextField();
         JTextField categoryField = new JTextField();
         JTextArea descriptionArea = new JTextArea(3, 20);
+        JCheckBox auctionBox = new JCheckBox("Sold by auction");
         
         panel.add(new JLabel("Name:"));
         panel.add(nameField);
@@ -910,6 +2836,8 @@ class MainFrame extends JFrame {
         panel.add(categoryField);
         panel.add(new JLabel("Description:"));
         panel.add(new JScrollPane(descriptionArea));
+        panel.add(new JLabel("Type:"));
+        panel.add(auctionBox);
         
         int result = JOptionPane.showConfirmDialog(
             this, panel, "Add New Product", 
@@ -924,6 +2852,7 @@ class MainFrame extends JFrame {
                 String description = descriptionArea.getText();
                 
                 Product product = new Product(name, price, stock, category, description);
+                product.setAuction(auctionBox.isSelected());
                 db.addProduct(product);
                 
                 refreshProductsTab();
@@ -938,13 +2867,14 @@ class MainFrame extends JFrame {
         Product product = db.getProductById(productId);
         if (product == null) return;
         
-        JPanel panel = new JPanel(new GridLayout(5, 2, 5, 5));
+        JPanel panel = new JPanel(new GridLayout(6, 2, 5, 5));
         
         JTextField nameField = new JTextField(product.getName());
         JTextField priceField = new JTextField(String.valueOf(product.getPrice()));
         JTextField stockField = new JTextField(String.valueOf(product.getStock()));
         JTextField categoryField = new JTextField(product.getCategory());
         JTextArea descriptionArea = new JTextArea(product.getDescription(), 3, 20);
+        JCheckBox auctionBox = new JCheckBox("Sold by auction", product.isAuction());
         
         panel.add(new JLabel("Name:"));
         panel.add(nameField);
@@ -956,6 +2886,8 @@ class MainFrame extends JFrame {
         panel.add(categoryField);
         panel.add(new JLabel("Description:"));
         panel.add(new JScrollPane(descriptionArea));
+        panel.add(new JLabel("Type:"));
+        panel.add(auctionBox);
         
         int result = JOptionPane.showConfirmDialog(
             this, panel, "Edit Product", 
@@ -963,15 +2895,25 @@ class MainFrame extends JFrame {
         
         if (result == JOptionPane.OK_OPTION) {
             try {
-                product.setName(nameField.getText());
-                product.setPrice(Double.parseDouble(priceField.getText()));
-                product.setStock(Integer.parseInt(stockField.getText()));
-                product.setCategory(categoryField.getText());
-                product.setDescription(descriptionArea.getText());
+                // A new Product with the same id; updateProduct() swaps it in under the product's
+                // lock stripe, so the live one is never changed outside it
+                Product edited = new Product(
+                    nameField.getText(),
+                    Double.parseDouble(priceField.getText()),
+                    Integer.parseInt(stockField.getText()),
+                    categoryField.getText(),
+                    descriptionArea.getText()
+                );
+                edited.setId(productId);
+                edited.setAuction(auctionBox.isSelected());
                 
-                db.updateProduct(product);
+                boolean updated = db.updateProduct(edited);
                 refreshProductsTab();
-                JOptionPane.showMessageDialog(this, "Product updated successfully!");
+                if (updated) {
+                    JOptionPane.showMessageDialog(this, "Product updated successfully!");
+                } else {
+                    JOptionPane.showMessageDialog(this, "Product no longer exists!", "Error", JOptionPane.ERROR_MESSAGE);
+                }
             } catch (NumberFormatException e) {
                 JOptionPane.showMessageDialog(this, "Invalid number format!", "Error", JOptionPane.ERROR_MESSAGE);
             }
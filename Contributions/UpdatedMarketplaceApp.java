@@ -3,23 +3,61 @@
 
 
 import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableCellEditor;
 import java.awt.*;
 import java.awt.event.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 public class MarketplaceApp extends JFrame {
     CardLayout cardLayout;
     JPanel mainPanel;
-    ArrayList<Product> cart = new ArrayList<>();
+    CartService cart = new CartService(); // product id -> line with quantity, only touched on the EDT
     HashMap<String, List<Product>> categoryProducts = new HashMap<>();
     Connection connection; // Database connection
     String userRole = "buyer"; // Default user role
+    String bidderName; // asked for on the first bid of the session
+
+    static final String DB_URL = "jdbc:mysql://localhost:3306/marketplace";
+    static final String DB_USER = "root"; // Replace with your credentials
+    static final String DB_PASSWORD = "";
+    // How long a new auction stays open; the end time is stored with it. -Dauction.minutes=... to change
+    static final long AUCTION_MINUTES = Long.getLong("auction.minutes", 24 * 60);
+
+    AuctionEngine auctionEngine = new AuctionEngine(DB_URL, DB_USER, DB_PASSWORD);
+    List<Product> auctionRows = new ArrayList<>(); // product behind each row of the auction table
+
+    // Category and search screens are built once and refreshed in place; only the most
+    // recently shown ones stay in mainPanel, older ones are removed from the CardLayout.
+    static final int MAX_CACHED_VIEWS = 8;
+    LinkedHashMap<String, ProductView> cachedViews = new LinkedHashMap<String, ProductView>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProductView> eldest) {
+            if (size() > MAX_CACHED_VIEWS) {
+                mainPanel.remove(eldest.getValue().panel);
+                return true;
+            }
+            return false;
+        }
+    };
 
     public MarketplaceApp() {
         setTitle("Marketplace");
@@ -30,7 +68,7 @@ public class MarketplaceApp extends JFrame {
 
         // Initialize database connection
         try {
-            connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/marketplace", "root", ""); // Replace with your credentials
+            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
             System.out.println("Connected to the database!");
         } catch (SQLException e) {
             JOptionPane.showMessageDialog(this, "Database connection failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -61,6 +99,7 @@ public class MarketplaceApp extends JFrame {
         categoryProducts.put("Home & Garden", new ArrayList<>());
         categoryProducts.put("Sports", new ArrayList<>());
 
+        List<Product> auctionProducts = new ArrayList<>();
         try {
             if (connection != null) {
                 String query = "SELECT * FROM products";
@@ -70,11 +109,20 @@ public class MarketplaceApp extends JFrame {
                 while (resultSet.next()) {
                     String category = resultSet.getString("category");
                     String name = resultSet.getString("name");
-                    String price = resultSet.getString("price");
                     int productId = resultSet.getInt("id");
+                    Money price;
+                    try {
+                        price = Money.parse(resultSet.getString("price")); // parsed once, here at the boundary
+                    } catch (NumberFormatException e) {
+                        System.err.println("Skipping product " + productId + ": " + e.getMessage());
+                        continue;
+                    }
                     boolean isAuction = resultSet.getInt("is_auction") == 1;
                     Product product = new Product(name, price, isAuction, productId);
                     categoryProducts.get(category).add(product);
+                    if (isAuction) {
+                        auctionProducts.add(product);
+                    }
                 }
                 resultSet.close();
                 statement.close();
@@ -83,6 +131,13 @@ public class MarketplaceApp extends JFrame {
             JOptionPane.showMessageDialog(this, "Error fetching products: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
             e.printStackTrace();
         }
+
+        try {
+            auctionEngine.open(auctionProducts, TimeUnit.MINUTES.toMillis(AUCTION_MINUTES)); // skips auctions already loaded
+        } catch (SQLException e) {
+            JOptionPane.showMessageDialog(this, "Error loading auctions: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+            e.printStackTrace();
+        }
     }
 
     private JPanel createTopPanel() {
@@ -96,7 +151,7 @@ public class MarketplaceApp extends JFrame {
 
         JPanel navPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 30, 10));
         navPanel.setBackground(Color.WHITE);
-        String[] navItems = {"Buy", "Sell", "Auction"};
+        String[] navItems = {"Buy", "Sell", "Auction", "Cart"};
         for (String item : navItems) {
             JButton navButton = new JButton(item);
             navButton.setFocusPainted(false);
@@ -114,6 +169,8 @@ public class MarketplaceApp extends JFrame {
                 } else if (item.equals("Auction")) {
                     userRole = "buyer";
                     cardLayout.show(mainPanel, "Auction");
+                } else if (item.equals("Cart")) {
+                    cardLayout.show(mainPanel, "Cart");
                 }
             });
             navPanel.add(navButton);
@@ -138,35 +195,19 @@ public class MarketplaceApp extends JFrame {
         searchButton.setBackground(Color.LIGHT_GRAY);
         searchButton.addActionListener(e -> {
             String searchText = searchField.getText().toLowerCase();
-            JPanel searchResultsPanel = new JPanel(new BorderLayout());
-            searchResultsPanel.setBackground(Color.WHITE);
-            JLabel titleLabel = new JLabel("Search Results for \"" + searchText + "\"", SwingConstants.CENTER);
-            titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
-            searchResultsPanel.add(titleLabel, BorderLayout.NORTH);
-
-            DefaultTableModel searchTableModel = new DefaultTableModel(new String[]{"Product", "Price", "Add to Cart"}, 0);
-            JTable searchTable = new JTable(searchTableModel);
-            searchTable.setRowHeight(40);
-            searchTable.setFont(new Font("Arial", Font.PLAIN, 18));
-            searchTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
-            searchTable.getColumn("Add to Cart").setCellRenderer(new ButtonRenderer());
-            searchTable.getColumn("Add to Cart").setCellEditor(new ButtonEditor(searchTable)); // Pass searchTable
-            JScrollPane searchScrollPane = new JScrollPane(searchTable);
-            searchResultsPanel.add(searchScrollPane, BorderLayout.CENTER);
-
+            List<Product> results = new ArrayList<>();
             for (List<Product> productList : categoryProducts.values()) {
                 for (Product product : productList) {
                     if (product.name.toLowerCase().contains(searchText)) {
-                        searchTableModel.addRow(new Object[]{product.name, product.price, "Add"});
+                        results.add(product);
                     }
                 }
             }
-            if (searchTableModel.getRowCount() == 0) {
+            if (results.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "No products found matching your search.", "No Results", JOptionPane.INFORMATION_MESSAGE);
                 return;
             }
-            mainPanel.add(searchResultsPanel, "Search Results");
-            cardLayout.show(mainPanel, "Search Results");
+            showProductView("Search Results", "Search Results for \"" + searchText + "\"", 24, results);
         });
 
         searchPanel.add(searchField);
@@ -221,27 +262,52 @@ public class MarketplaceApp extends JFrame {
         title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
         auctionPanel.add(title, BorderLayout.NORTH);
 
-        DefaultTableModel auctionTableModel = new DefaultTableModel(new String[]{"Product", "Current Bid", "Place Bid"}, 0);
+        DefaultTableModel auctionTableModel = new DefaultTableModel(new String[]{"Product", "Current Bid", "Status", "Place Bid"}, 0);
         JTable auctionTable = new JTable(auctionTableModel);
         auctionTable.setRowHeight(40);
         auctionTable.setFont(new Font("Arial", Font.PLAIN, 18));
         auctionTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
-        auctionTable.getColumn("Place Bid").setCellRenderer(new ButtonRenderer());
+        auctionTable.getColumn("Place Bid").setCellRenderer(ButtonRenderer.shared());
         auctionTable.getColumn("Place Bid").setCellEditor(new ButtonEditor(auctionTable, auctionTableModel)); // Pass auctionTable and model
         JScrollPane auctionScrollPane = new JScrollPane(auctionTable);
         auctionPanel.add(auctionScrollPane, BorderLayout.CENTER);
 
+        auctionRows.clear();
         for (List<Product> productList : categoryProducts.values()) {
             for (Product product : productList) {
                 if (product.isAuction) {
-                    auctionTableModel.addRow(new Object[]{product.name, product.price, "Bid"});
+                    Auction auction = auctionEngine.get(product.id);
+                    auctionTableModel.addRow(new Object[]{product.name, auction == null ? product.price : auction.currentPrice(),
+                            auction == null ? "" : auction.describeStatus(), "Bid"});
+                    auctionRows.add(product);
                 }
             }
         }
 
+        // Bids from any thread and scheduled closes are pushed into the table on the EDT
+        auctionEngine.addListener(new AuctionListener() {
+            public void bidAccepted(Auction auction, Bid bid) {
+                SwingUtilities.invokeLater(() -> updateAuctionRow(auctionTableModel, auction));
+            }
+
+            public void auctionClosed(Auction auction, Bid winner) {
+                SwingUtilities.invokeLater(() -> updateAuctionRow(auctionTableModel, auction));
+            }
+        });
+
         return auctionPanel;
     }
 
+    private void updateAuctionRow(DefaultTableModel model, Auction auction) {
+        for (int row = 0; row < auctionRows.size(); row++) {
+            if (auctionRows.get(row).id == auction.productId) {
+                model.setValueAt(auction.currentPrice(), row, 1);
+                model.setValueAt(auction.describeStatus(), row, 2);
+                return;
+            }
+        }
+    }
+
     private JPanel sellPage() {
         JPanel sellPanel = new JPanel(new BorderLayout());
         sellPanel.setBackground(Color.WHITE);
@@ -290,9 +356,15 @@ public class MarketplaceApp extends JFrame {
         submitButton.addActionListener(e -> {
             String name = nameField.getText();
             String category = (String) categoryComboBox.getSelectedItem();
-            String price = priceField.getText();
             String description = descriptionArea.getText();
             boolean isAuction = isAuctionCheckBox.isSelected();
+            Money price;
+            try {
+                price = Money.parse(priceField.getText());
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid price format.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
             try {
                 if (connection != null) {
@@ -300,28 +372,19 @@ public class MarketplaceApp extends JFrame {
                     PreparedStatement preparedStatement = connection.prepareStatement(query);
                     preparedStatement.setString(1, name);
                     preparedStatement.setString(2, category);
-                    preparedStatement.setString(3, price);
+                    preparedStatement.setString(3, price.toPlainString());
                     preparedStatement.setString(4, description);
                     preparedStatement.setBoolean(5, isAuction);
                     preparedStatement.executeUpdate();
                     preparedStatement.close();
 
-                    // Add the product to the appropriate section
-                    Product newProduct = new Product(name, price, isAuction, -1); // -1 for ID since it's not fetched here
-                    List<Product> categoryList = categoryProducts.get(category);
-                    if (categoryList == null) {
-                        categoryList = new ArrayList<>();
-                        categoryProducts.put(category, categoryList);
-                    }
-                    categoryList.add(newProduct);
-
                     if (isAuction) {
                         JOptionPane.showMessageDialog(this, "Product added to Auction successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
                     } else {
                         JOptionPane.showMessageDialog(this, "Product added to Buy section successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
                     }
 
-                    populateProducts(); // Refresh the product lists
+                    populateProducts(); // Reload the lists, so the new product arrives with its database id
                     nameField.setText("");
                     priceField.setText("");
                     descriptionArea.setText("");
@@ -359,51 +422,40 @@ public class MarketplaceApp extends JFrame {
         title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
         cartPanel.add(title, BorderLayout.NORTH);
 
-        DefaultTableModel cartTableModel = new DefaultTableModel(new String[]{"Product", "Price", "Remove"}, 0);
-        JTable cartTable = new JTable(cartTableModel);
+        // The table reads straight from the cart and is told about each changed row
+        JTable cartTable = new JTable(new CartTableModel(cart));
         cartTable.setRowHeight(40);
         cartTable.setFont(new Font("Arial", Font.PLAIN, 18));
         cartTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
-        cartTable.getColumn("Remove").setCellRenderer(new ButtonRenderer());
+        cartTable.getColumn("Remove").setCellRenderer(ButtonRenderer.shared());
         cartTable.getColumn("Remove").setCellEditor(new ButtonEditor(cartTable)); // Pass cartTable
         JScrollPane cartScrollPane = new JScrollPane(cartTable);
         cartPanel.add(cartScrollPane, BorderLayout.CENTER);
 
-        for (Product product : cart) {
-            cartTableModel.addRow(new Object[]{product.name, product.price, "Remove"});
-        }
+        JLabel subtotalLabel = new JLabel("Subtotal: " + cart.getSubtotal(), JLabel.CENTER);
+        subtotalLabel.setFont(new Font("Arial", Font.BOLD, 18));
+        subtotalLabel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
+        cart.addListener((change, row) -> subtotalLabel.setText("Subtotal: " + cart.getSubtotal()));
+        cartPanel.add(subtotalLabel, BorderLayout.SOUTH);
 
         return cartPanel;
     }
 
     private void showProductsForCategory(String category) {
-        JPanel categoryPanel = new JPanel(new BorderLayout());
-        categoryPanel.setBackground(Color.WHITE);
-
-        JLabel title = new JLabel(category + " Products", JLabel.CENTER);
-        title.setFont(new Font("Arial", Font.BOLD, 30));
-        title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
-        categoryPanel.add(title, BorderLayout.NORTH);
-
-        DefaultTableModel categoryTableModel = new DefaultTableModel(new String[]{"Product", "Price", "Add to Cart"}, 0);
-        JTable categoryTable = new JTable(categoryTableModel);
-        categoryTable.setRowHeight(40);
-        categoryTable.setFont(new Font("Arial", Font.PLAIN, 18));
-        categoryTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
-        categoryTable.getColumn("Add to Cart").setCellRenderer(new ButtonRenderer());
-        categoryTable.getColumn("Add to Cart").setCellEditor(new ButtonEditor(categoryTable)); // Pass categoryTable
-        JScrollPane categoryScrollPane = new JScrollPane(categoryTable);
-        categoryPanel.add(categoryScrollPane, BorderLayout.CENTER);
-
         List<Product> products = categoryProducts.get(category);
-        if (products != null) { //check if the category exists
-            for (Product product : products) {
-                categoryTableModel.addRow(new Object[]{product.name, product.price, "Add"});
-            }
-        }
+        showProductView(category, category + " Products", 30, products != null ? products : new ArrayList<>());
+    }
 
-        mainPanel.add(categoryPanel, category);
-        cardLayout.show(mainPanel, category);
+    // Shows the cached screen for `cardName`, building it the first time, with its rows replaced by `products`
+    private void showProductView(String cardName, String titleText, int titleSize, List<Product> products) {
+        ProductView view = cachedViews.get(cardName);
+        if (view == null) {
+            view = new ProductView(titleSize);
+            cachedViews.put(cardName, view);
+            mainPanel.add(view.panel, cardName);
+        }
+        view.show(titleText, products);
+        cardLayout.show(mainPanel, cardName);
     }
 
     public static void main(String[] args) {
@@ -413,31 +465,367 @@ public class MarketplaceApp extends JFrame {
 
 class Product {
     String name;
-    String price;
+    Money price;
     boolean isAuction;
     int id;
 
-    public Product(String name, String price, boolean isAuction, int id) {
+    public Product(String name, Money price, boolean isAuction, int id) {
         this.name = name;
         this.price = price;
         this.isAuction = isAuction;
         this.id = id;
     }
-     public Product(String name, String price) {
+     public Product(String name, Money price) {
         this.name = name;
         this.price = price;
 
     }
 }
 
+/**
+ * An amount of money held as a whole number of minor units (paise, cents) plus an ISO currency code.
+ * Prices are parsed from text once, when they come out of the database or the sell form, and are
+ * added and compared as longs from then on. Instances are immutable, and the display string is
+ * built once and reused, so table cells can call toString() as often as they repaint.
+ */
+final class Money implements Comparable<Money> {
+    static final String DEFAULT_CURRENCY = "INR";
+    private static final int SCALE = 2;
+    // Plain decimals only: no exponent, and few enough digits that BigDecimal stays cheap and the
+    // minor units fit in a long
+    private static final Pattern AMOUNT = Pattern.compile("[-+]?(\\d{1,15}(\\.\\d{0,15})?|\\.\\d{1,15})");
+
+    final long minor;
+    final String currency;
+    private String display; // lazily built "₹1,299.00"
+
+    private Money(long minor, String currency) {
+        this.minor = minor;
+        this.currency = currency;
+    }
+
+    static Money ofMinor(long minor, String currency) {
+        return new Money(minor, currency);
+    }
+
+    static Money zero(String currency) {
+        return new Money(0, currency);
+    }
+
+    /**
+     * Parses "₹1,299.50", "Rs 1299.5", "$12", "INR 12.00" or a bare "1299.50".
+     * A missing currency symbol means rupees. Throws NumberFormatException for anything else.
+     */
+    static Money parse(String text) {
+        if (text == null) {
+            throw new NumberFormatException("No price");
+        }
+        String s = text.trim();
+        String currency = DEFAULT_CURRENCY;
+        if (s.startsWith("₹")) {
+            s = s.substring(1);
+        } else if (s.startsWith("$")) {
+            currency = "USD";
+            s = s.substring(1);
+        } else if (s.regionMatches(true, 0, "Rs.", 0, 3)) {
+            s = s.substring(3);
+        } else if (s.regionMatches(true, 0, "Rs", 0, 2)) {
+            s = s.substring(2);
+        } else if (s.length() > 3 && Character.isLetter(s.charAt(0))) {
+            currency = s.substring(0, 3).toUpperCase(Locale.ROOT);
+            s = s.substring(3);
+        }
+        s = s.replace(",", "").trim();
+        if (s.isEmpty()) {
+            throw new NumberFormatException("No amount in \"" + text + "\"");
+        }
+        if (!AMOUNT.matcher(s).matches()) {
+            throw new NumberFormatException("Not a plain amount: \"" + text + "\"");
+        }
+        try {
+            long minor = new BigDecimal(s).setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            return new Money(minor, currency);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + text);
+        }
+    }
+
+    Money plus(Money other) {
+        checkCurrency(other);
+        return new Money(Math.addExact(minor, other.minor), currency);
+    }
+
+    Money times(int quantity) {
+        return new Money(Math.multiplyExact(minor, quantity), currency);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(minor, other.minor);
+    }
+
+    private void checkCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Cannot mix " + currency + " and " + other.currency);
+        }
+    }
+
+    BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+
+    /** "1299.50", the form written to the database. */
+    String toPlainString() {
+        return toBigDecimal().toPlainString();
+    }
+
+    @Override
+    public String toString() {
+        if (display == null) {
+            String symbol = currency.equals("INR") ? "₹" : currency.equals("USD") ? "$" : currency + " ";
+            display = symbol + String.format("%,.2f", toBigDecimal());
+        }
+        return display;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).minor == minor && ((Money) o).currency.equals(currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minor) * 31 + currency.hashCode();
+    }
+}
+
+// The shopping cart: one line per product id with its quantity, and a subtotal that is
+// adjusted on every change instead of being summed again. Listeners are told which row
+// changed, so the cart table repaints that row only. Lines stay in the order they were first
+// added; removing one moves the last line into its place so no other row shifts.
+// Only used on the Event Dispatch Thread.
+class CartService {
+    enum Change { INSERTED, UPDATED, REMOVED }
+
+    interface Listener {
+        void cartChanged(Change change, int row);
+    }
+
+    static final class Line {
+        final Product product;
+        int quantity;
+        Money subtotal; // price times quantity, kept up to date
+        int row;
+
+        Line(Product product, int quantity) {
+            this.product = product;
+            this.quantity = quantity;
+            this.subtotal = product.price.times(quantity);
+        }
+    }
+
+    private final HashMap<Integer, Line> byProductId = new HashMap<>();
+    private final ArrayList<Line> lines = new ArrayList<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private Money subtotal = Money.zero(Money.DEFAULT_CURRENCY);
+    private int itemCount = 0;
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Adds `quantity` of the product; throws IllegalArgumentException for a second currency, or
+    // for a product without a database id yet (lines are keyed by id, so unsaved ones would merge)
+    void add(Product product, int quantity) {
+        if (product.id <= 0) {
+            throw new IllegalArgumentException("Product " + product.name + " has no id yet");
+        }
+        Money added = product.price.times(quantity);
+        Money newSubtotal = lines.isEmpty() ? added : subtotal.plus(added); // checks the currency first
+        Line line = byProductId.get(product.id);
+        boolean inserted = line == null;
+        if (inserted) {
+            line = new Line(product, quantity);
+            line.row = lines.size();
+            lines.add(line);
+            byProductId.put(product.id, line);
+        } else {
+            line.quantity += quantity;
+            line.subtotal = line.subtotal.plus(added);
+        }
+        subtotal = newSubtotal;
+        itemCount += quantity;
+        fire(inserted ? Change.INSERTED : Change.UPDATED, line.row);
+    }
+
+    // Takes up to `quantity` of the product out of the cart, dropping the line at zero
+    void remove(int productId, int quantity) {
+        Line line = byProductId.get(productId);
+        if (line == null) {
+            return;
+        }
+        int taken = Math.min(quantity, line.quantity);
+        Money removed = line.product.price.times(taken);
+        line.quantity -= taken;
+        line.subtotal = line.subtotal.plus(removed.times(-1));
+        subtotal = subtotal.plus(removed.times(-1));
+        itemCount -= taken;
+        if (line.quantity > 0) {
+            fire(Change.UPDATED, line.row);
+            return;
+        }
+        byProductId.remove(productId);
+        int last = lines.size() - 1;
+        Line moved = lines.remove(last);
+        if (moved != line) {
+            moved.row = line.row;
+            lines.set(line.row, moved);
+        }
+        fire(Change.REMOVED, last);
+        if (moved != line) {
+            fire(Change.UPDATED, moved.row);
+        }
+    }
+
+    Line lineAt(int row) {
+        return lines.get(row);
+    }
+
+    int size() {
+        return lines.size();
+    }
+
+    boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    int getItemCount() {
+        return itemCount;
+    }
+
+    Money getSubtotal() {
+        return subtotal;
+    }
+
+    private void fire(Change change, int row) {
+        for (Listener listener : listeners) {
+            listener.cartChanged(change, row);
+        }
+    }
+}
+
+// The cart table, reading straight from the cart and updated one row per change
+class CartTableModel extends AbstractTableModel implements CartService.Listener {
+    private static final String[] COLUMNS = {"Product", "Qty", "Price", "Remove"};
+    private final CartService cart;
+
+    CartTableModel(CartService cart) {
+        this.cart = cart;
+        cart.addListener(this);
+    }
+
+    @Override
+    public void cartChanged(CartService.Change change, int row) {
+        switch (change) {
+            case INSERTED: fireTableRowsInserted(row, row); break;
+            case UPDATED: fireTableRowsUpdated(row, row); break;
+            default: fireTableRowsDeleted(row, row); break;
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return cart.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        CartService.Line line = cart.lineAt(row);
+        switch (column) {
+            case 0: return line.product.name;
+            case 1: return line.quantity;
+            case 2: return line.subtotal;
+            default: return "Remove";
+        }
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == 3;
+    }
+}
+
+// A product table screen that is built once and refilled each time it is shown
+class ProductView {
+    final JPanel panel = new JPanel(new BorderLayout());
+    final JLabel title = new JLabel("", JLabel.CENTER);
+    final DefaultTableModel model = new DefaultTableModel(new String[]{"Product", "Price", "Add to Cart"}, 0);
+    final JTable table = new JTable(model);
+    final List<Product> rows = new ArrayList<>(); // product behind each row, so the cart gets its id
+
+    ProductView(int titleSize) {
+        panel.setBackground(Color.WHITE);
+        title.setFont(new Font("Arial", Font.BOLD, titleSize));
+        title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
+        panel.add(title, BorderLayout.NORTH);
+
+        table.setRowHeight(40);
+        table.setFont(new Font("Arial", Font.PLAIN, 18));
+        table.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
+        table.getColumn("Add to Cart").setCellRenderer(ButtonRenderer.shared());
+        table.getColumn("Add to Cart").setCellEditor(new ButtonEditor(table, rows));
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    }
+
+    void show(String titleText, List<Product> products) {
+        if (table.isEditing()) {
+            table.getCellEditor().cancelCellEditing();
+        }
+        title.setText(titleText);
+        model.setRowCount(0);
+        rows.clear();
+        rows.addAll(products);
+        for (Product product : products) {
+            model.addRow(new Object[]{product.name, product.price, "Add"});
+        }
+    }
+}
+
 class ButtonRenderer extends JButton implements TableCellRenderer {
+    private static ButtonRenderer shared; // created lazily on the EDT
+
+    // One renderer serves every action column (Add to Cart, Place Bid, Remove):
+    // Swing only borrows it while stamping a cell, so sharing it is safe.
+    static ButtonRenderer shared() {
+        if (shared == null) {
+            shared = new ButtonRenderer();
+        }
+        return shared;
+    }
+
     public ButtonRenderer() {
         setOpaque(true);
     }
 
     @Override
     public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
-        setText((value == null) ? "" : value.toString());
+        // Called for every visible cell on every repaint; skip setText (and the
+        // revalidate it triggers) when the label is unchanged.
+        String text = (value == null) ? "" : value.toString();
+        if (!text.equals(getText())) {
+            setText(text);
+        }
         return this;
     }
 }
@@ -449,6 +837,7 @@ class ButtonEditor extends DefaultCellEditor {
     private JTable table;
     private MarketplaceApp parent; //reference to the main class
     private DefaultTableModel tableModel; //reference to the table model
+    private List<Product> rows; // products behind an "Add to Cart" table, in row order
 
     public ButtonEditor(JTable table) {
         super(new JTextField());
@@ -480,6 +869,11 @@ class ButtonEditor extends DefaultCellEditor {
         });
     }
 
+    public ButtonEditor(JTable table, List<Product> rows) { //constructor for product lists
+        this(table);
+        this.rows = rows;
+    }
+
     //method to get the instance of the main class
      private MarketplaceApp getAppInstance() {
         Frame[] frames = JFrame.getFrames();
@@ -520,55 +914,61 @@ class ButtonEditor extends DefaultCellEditor {
         int selectedRow = table.getSelectedRow();
         if (selectedRow != -1) {
             String productName = (String) table.getValueAt(selectedRow, 0);
-            String price = (String) table.getValueAt(selectedRow, 1);
 
             if (table.getColumnName(table.getSelectedColumn()).equals("Remove")) {
-                // Handle remove from cart
+                // Handle remove from cart: one unit of the line, found by product id; the cart
+                // table hears about the change through its listener
                 if (parent != null) {
-                    for (int i = 0; i < parent.cart.size(); i++) { // Use parent to access the cart
-                        if (parent.cart.get(i).name.equals(productName)) {
-                            parent.cart.remove(i);
-                            ((DefaultTableModel) table.getModel()).removeRow(selectedRow);
-                            JOptionPane.showMessageDialog(null, productName + " removed from cart!");
-                            return; // Important: Exit after removing the item
-                        }
-                    }
+                    CartService.Line line = parent.cart.lineAt(table.convertRowIndexToModel(selectedRow));
+                    parent.cart.remove(line.product.id, 1);
+                    JOptionPane.showMessageDialog(null, productName + " removed from cart!");
                 }
             } else if (table.getColumnName(table.getSelectedColumn()).equals("Place Bid")) {
-                 // Handle bid action
-                String currentBid = price;
+                Money price = (Money) table.getValueAt(selectedRow, 1);
+                 // Handle bid action: the auction engine decides atomically whether the bid wins
+                if (parent == null) {
+                    return;
+                }
+                Product product = parent.auctionRows.get(selectedRow);
                 String newBid = JOptionPane.showInputDialog(null,
-                        "Enter your bid for " + productName + " (Current Bid: " + currentBid + "):",
+                        "Enter your bid for " + productName + " (Current Bid: " + price + "):",
                         "Place Bid",
                         JOptionPane.PLAIN_MESSAGE);
 
                 if (newBid != null && !newBid.trim().isEmpty()) {
+                    if (parent.bidderName == null) {
+                        String bidder = JOptionPane.showInputDialog(null, "Enter your name for bidding:", "Bidder", JOptionPane.PLAIN_MESSAGE);
+                        if (bidder == null || bidder.trim().isEmpty()) {
+                            return;
+                        }
+                        parent.bidderName = bidder.trim();
+                    }
                     try {
-                        double newBidValue = Double.parseDouble(newBid);
-                        double currentBidValue = Double.parseDouble(currentBid);
-
-                        if (newBidValue > currentBidValue) {
-                            table.setValueAt(String.valueOf(newBidValue), selectedRow, 1); //update the table
-                            //update the product price
-                            for (List<Product> productList : parent.categoryProducts.values()) {
-                                for (Product product : productList) {
-                                    if (product.name.equals(productName)) {
-                                        product.price = String.valueOf(newBidValue);
-                                        break;
-                                    }
-                                }
-                            }
+                        Money newBidValue = Money.parse(newBid);
+                        BidResult result = parent.auctionEngine.placeBid(product.id, parent.bidderName, newBidValue);
+
+                        if (result == BidResult.ACCEPTED) {
                             JOptionPane.showMessageDialog(null,
-                                    "Your bid of " + newBid + " has been placed successfully!",
+                                    "Your bid of " + newBidValue + " has been placed successfully!",
                                     "Bid Successful",
                                     JOptionPane.INFORMATION_MESSAGE);
-                        } else {
+                        } else if (result == BidResult.TOO_LOW) {
                             JOptionPane.showMessageDialog(null,
                                     "Your bid must be higher than the current bid!",
                                     "Invalid Bid",
                                     JOptionPane.WARNING_MESSAGE);
+                        } else if (result == BidResult.NOT_RECORDED) {
+                            JOptionPane.showMessageDialog(null,
+                                    "Your bid could not be recorded. Please try again.",
+                                    "Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                        } else {
+                            JOptionPane.showMessageDialog(null,
+                                    "This auction is no longer accepting bids.",
+                                    "Auction Closed",
+                                    JOptionPane.WARNING_MESSAGE);
                         }
-                    } catch (NumberFormatException ex) {
+                    } catch (IllegalArgumentException ex) { // bad number, or a bid in a different currency
                         JOptionPane.showMessageDialog(null,
                                 "Invalid bid amount. Please enter a valid number.",
                                 "Error",
@@ -578,8 +978,16 @@ class ButtonEditor extends DefaultCellEditor {
 
             } else if (table.getColumnName(table.getSelectedColumn()).equals("Add to Cart")) {
                 // Handle add to cart
-                 if (parent != null) {
-                     parent.cart.add(new Product(productName, price));
+                 if (parent != null && rows != null) {
+                     Product product = rows.get(table.convertRowIndexToModel(selectedRow));
+                     try {
+                         parent.cart.add(product, 1);
+                     } catch (IllegalArgumentException ex) { // not saved yet, or priced in another currency than the rest of the cart
+                         String message = product.id <= 0 ? productName + " is still being saved; please try again in a moment."
+                                 : "Your cart can only hold items priced in one currency.";
+                         JOptionPane.showMessageDialog(null, message, "Cart", JOptionPane.WARNING_MESSAGE);
+                         return;
+                     }
                      JOptionPane.showMessageDialog(null, productName + " added to cart!");
                  }
             }
@@ -587,3 +995,458 @@ class ButtonEditor extends DefaultCellEditor {
     }
 }
 
+// Auction classes
+
+// One accepted bid. Accepted bids on an auction strictly increase, so amount order is acceptance order.
+class Bid {
+    final String bidder;
+    final Money amount;
+    final long placedAt;
+
+    Bid(String bidder, Money amount, long placedAt) {
+        this.bidder = bidder;
+        this.amount = amount;
+        this.placedAt = placedAt;
+    }
+}
+
+enum BidResult { ACCEPTED, TOO_LOW, CLOSED, UNKNOWN_AUCTION, NOT_RECORDED } // NOT_RECORDED: the database could not be reached
+
+interface AuctionListener {
+    void bidAccepted(Auction auction, Bid bid);
+    void auctionClosed(Auction auction, Bid winner);
+}
+
+class Auction {
+    // Leader and open/closed flag live in one immutable object so a single
+    // compareAndSet decides both "is this the highest bid" and "is it still open".
+    static final class State {
+        final Bid leader;
+        final boolean closed;
+
+        State(Bid leader, boolean closed) {
+            this.leader = leader;
+            this.closed = closed;
+        }
+    }
+
+    final int productId;
+    final String productName;
+    final Money startingPrice;
+    final long endsAt;
+    final AtomicReference<State> state = new AtomicReference<>(new State(null, false));
+    final ConcurrentLinkedQueue<Bid> bidLog = new ConcurrentLinkedQueue<>();
+    volatile boolean recorded; // the winning bid's order was committed and the product taken off auction
+
+    Auction(int productId, String productName, Money startingPrice, long endsAt) {
+        this.productId = productId;
+        this.productName = productName;
+        this.startingPrice = startingPrice;
+        this.endsAt = endsAt;
+    }
+
+    Money currentPrice() {
+        Bid leader = state.get().leader;
+        return leader == null ? startingPrice : leader.amount;
+    }
+
+    // Every accepted bid, oldest first
+    List<Bid> history() {
+        List<Bid> bids = new ArrayList<>(bidLog);
+        bids.sort((a, b) -> a.amount.compareTo(b.amount));
+        return bids;
+    }
+
+    String describeStatus() {
+        State current = state.get();
+        if (!current.closed) {
+            long minutesLeft = Math.max(0, (endsAt - System.currentTimeMillis()) / 60000);
+            return bidLog.size() + " bids, " + minutesLeft + " min left";
+        }
+        if (current.leader == null) {
+            return "Closed, no bids";
+        }
+        return recorded ? "Sold to " + current.leader.bidder : "Won by " + current.leader.bidder + ", sale not recorded";
+    }
+}
+
+// Auctions live in the database, so every instance of the app sees the same end time, leader
+// and bids, and a restart picks up where the last run stopped. The auctions table holds one row
+// per auctioned product with its end time and current leader; auction_bids logs every accepted
+// bid. A bid is accepted by one conditional UPDATE on the auctions row, which only succeeds
+// while the auction is open and the bid beats the stored one; the compare-and-set on the
+// in-memory state runs first, so bids this instance already knows to be too low or too late
+// never reach the database. Auctions close on a scheduler thread, which sells the product to
+// the stored leader and takes it off auction in one transaction. The same thread looks for
+// ended auctions whose product is still on auction every minute and settles them again, so a
+// sale that failed to record, or one left behind by an instance that exited, is not lost.
+class AuctionEngine {
+    private static final long SETTLE_RETRY_SECONDS = 60;
+
+    private final String url, user, password;
+    private final ConcurrentHashMap<Integer, Auction> auctions = new ConcurrentHashMap<>();
+    private final List<AuctionListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "auction-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean started; // tables created and the settle sweep scheduled; guarded by this
+
+    AuctionEngine(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    void addListener(AuctionListener listener) {
+        listeners.add(listener);
+    }
+
+    Auction get(int productId) {
+        return auctions.get(productId);
+    }
+
+    // Loads the auctions of these products, starting one that ends durationMillis from now for
+    // each product that has never been auctioned. An auction already in the database keeps its
+    // end time, leader and bids, whichever instance started it. Products already loaded are skipped.
+    synchronized void open(List<Product> products, long durationMillis) throws SQLException {
+        List<Product> fresh = new ArrayList<>();
+        for (Product product : products) {
+            if (!auctions.containsKey(product.id)) {
+                fresh.add(product);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            if (!started) {
+                createTables(connection);
+            }
+            Map<Integer, Object[]> rows = loadAuctions(connection);
+            long endsAt = System.currentTimeMillis() + durationMillis;
+            boolean raced = false;
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO auctions (product_id, ends_at, current_bid) VALUES (?, ?, ?)")) {
+                for (Product product : fresh) {
+                    if (rows.containsKey(product.id)) {
+                        continue;
+                    }
+                    insert.setInt(1, product.id);
+                    insert.setLong(2, endsAt);
+                    insert.setBigDecimal(3, product.price.toBigDecimal()); // the starting price until the first bid
+                    try {
+                        insert.executeUpdate();
+                        rows.put(product.id, new Object[]{endsAt, product.price, null});
+                    } catch (SQLIntegrityConstraintViolationException e) {
+                        raced = true; // another instance opened it first; use its row
+                    }
+                }
+            }
+            if (raced) {
+                rows = loadAuctions(connection);
+            }
+            Map<Integer, List<Bid>> bids = loadBids(connection);
+
+            long now = System.currentTimeMillis();
+            for (Product product : fresh) {
+                Object[] row = rows.get(product.id);
+                if (row == null) {
+                    continue;
+                }
+                long auctionEndsAt = (Long) row[0];
+                Money current = (Money) row[1];
+                String leader = (String) row[2];
+                Auction auction = new Auction(product.id, product.name, leader == null ? current : product.price, auctionEndsAt);
+                List<Bid> history = bids.getOrDefault(product.id, new ArrayList<>());
+                auction.bidLog.addAll(history);
+                if (leader != null) {
+                    Bid last = history.isEmpty() ? null : history.get(history.size() - 1);
+                    boolean logged = last != null && last.bidder.equals(leader) && last.amount.compareTo(current) == 0;
+                    auction.state.set(new Auction.State(logged ? last : new Bid(leader, current, 0), false));
+                }
+                if (auctions.putIfAbsent(product.id, auction) == null) {
+                    scheduler.schedule(() -> settle(auction.productId), Math.max(0, auctionEndsAt - now), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (!started) {
+            started = true;
+            scheduler.scheduleWithFixedDelay(this::settleDue, SETTLE_RETRY_SECONDS, SETTLE_RETRY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // The engine's own tables, created on first use so an existing marketplace schema needs no
+    // migration. ends_at is in epoch milliseconds; leader is null until the first bid.
+    private static void createTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS auctions ("
+                    + "product_id INT PRIMARY KEY, ends_at BIGINT NOT NULL, current_bid DECIMAL(12, 2) NOT NULL, leader VARCHAR(255))");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS auction_bids ("
+                    + "id INT AUTO_INCREMENT PRIMARY KEY, product_id INT NOT NULL, bidder VARCHAR(255) NOT NULL, "
+                    + "amount DECIMAL(12, 2) NOT NULL, placed_at BIGINT NOT NULL)");
+        }
+    }
+
+    // product id -> {ends_at, current_bid, leader} for every product still on auction
+    private static Map<Integer, Object[]> loadAuctions(Connection connection) throws SQLException {
+        Map<Integer, Object[]> rows = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT a.product_id, a.ends_at, a.current_bid, a.leader "
+                     + "FROM auctions a JOIN products p ON p.id = a.product_id WHERE p.is_auction = 1")) {
+            while (resultSet.next()) {
+                rows.put(resultSet.getInt("product_id"), new Object[]{
+                        resultSet.getLong("ends_at"), Money.parse(resultSet.getString("current_bid")), resultSet.getString("leader")});
+            }
+        }
+        return rows;
+    }
+
+    // Accepted bids of every product still on auction, oldest first
+    private static Map<Integer, List<Bid>> loadBids(Connection connection) throws SQLException {
+        Map<Integer, List<Bid>> bids = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT b.product_id, b.bidder, b.amount, b.placed_at "
+                     + "FROM auction_bids b JOIN products p ON p.id = b.product_id WHERE p.is_auction = 1 ORDER BY b.id")) {
+            while (resultSet.next()) {
+                bids.computeIfAbsent(resultSet.getInt("product_id"), k -> new ArrayList<>()).add(new Bid(
+                        resultSet.getString("bidder"), Money.parse(resultSet.getString("amount")), resultSet.getLong("placed_at")));
+            }
+        }
+        return bids;
+    }
+
+    BidResult placeBid(int productId, String bidder, Money amount) {
+        Auction auction = auctions.get(productId);
+        if (auction == null) {
+            return BidResult.UNKNOWN_AUCTION;
+        }
+        Bid bid = new Bid(bidder, amount, System.currentTimeMillis());
+        // Turn away what this instance already knows to be late or too low without a round trip
+        Auction.State current = auction.state.get();
+        if (current.closed || bid.placedAt >= auction.endsAt) {
+            return BidResult.CLOSED;
+        }
+        Money floor = current.leader == null ? auction.startingPrice : current.leader.amount;
+        if (amount.compareTo(floor) <= 0) {
+            return BidResult.TOO_LOW;
+        }
+        BidResult result;
+        try {
+            result = record(auction, bid);
+        } catch (SQLException e) {
+            System.err.println("Could not record a bid on " + auction.productName + ": " + e.getMessage());
+            e.printStackTrace();
+            return BidResult.NOT_RECORDED;
+        }
+        if (result == BidResult.ACCEPTED) {
+            raise(auction, bid);
+        }
+        return result;
+    }
+
+    // Stores the bid if the auction is still open and it beats the stored leader, which another
+    // instance may have raised since this one last looked
+    private BidResult record(Auction auction, Bid bid) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE auctions SET current_bid = ?, leader = ? WHERE product_id = ? AND ends_at > ? AND current_bid < ?")) {
+                    update.setBigDecimal(1, bid.amount.toBigDecimal());
+                    update.setString(2, bid.bidder);
+                    update.setInt(3, auction.productId);
+                    update.setLong(4, bid.placedAt);
+                    update.setBigDecimal(5, bid.amount.toBigDecimal());
+                    if (update.executeUpdate() == 0) {
+                        connection.rollback();
+                        return refused(connection, auction, bid);
+                    }
+                }
+                try (PreparedStatement log = connection.prepareStatement(
+                        "INSERT INTO auction_bids (product_id, bidder, amount, placed_at) VALUES (?, ?, ?, ?)")) {
+                    log.setInt(1, auction.productId);
+                    log.setString(2, bid.bidder);
+                    log.setBigDecimal(3, bid.amount.toBigDecimal());
+                    log.setLong(4, bid.placedAt);
+                    log.executeUpdate();
+                }
+                connection.commit();
+                return BidResult.ACCEPTED;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Tells a late bid from a low one, and brings the in-memory leader up to the stored one
+    private BidResult refused(Connection connection, Auction auction, Bid bid) throws SQLException {
+        try (PreparedStatement read = connection.prepareStatement(
+                "SELECT ends_at, current_bid, leader FROM auctions WHERE product_id = ?")) {
+            read.setInt(1, auction.productId);
+            try (ResultSet resultSet = read.executeQuery()) {
+                if (!resultSet.next() || resultSet.getLong("ends_at") <= bid.placedAt) {
+                    return BidResult.CLOSED;
+                }
+                String leader = resultSet.getString("leader");
+                if (leader != null) {
+                    raise(auction, new Bid(leader, Money.parse(resultSet.getString("current_bid")), bid.placedAt));
+                }
+                return BidResult.TOO_LOW;
+            }
+        }
+    }
+
+    // Makes the bid the in-memory leader unless the auction closed or a higher bid is already there
+    private void raise(Auction auction, Bid bid) {
+        while (true) {
+            Auction.State current = auction.state.get();
+            if (current.closed || (current.leader != null && current.leader.amount.compareTo(bid.amount) >= 0)) {
+                return;
+            }
+            if (auction.state.compareAndSet(current, new Auction.State(bid, false))) {
+                break;
+            }
+            // another bid won the race; re-check against the new leader
+        }
+        auction.bidLog.add(bid);
+        for (AuctionListener listener : listeners) {
+            listener.bidAccepted(auction, bid);
+        }
+    }
+
+    // Runs on the scheduler: settles every ended auction whose product is still on auction
+    private void settleDue() {
+        List<Integer> due = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection(url, user, password);
+             PreparedStatement statement = connection.prepareStatement("SELECT a.product_id FROM auctions a "
+                     + "JOIN products p ON p.id = a.product_id WHERE p.is_auction = 1 AND a.ends_at <= ?")) {
+            statement.setLong(1, System.currentTimeMillis());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    due.add(resultSet.getInt("product_id"));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Could not look for ended auctions: " + e.getMessage());
+            return;
+        }
+        for (int productId : due) {
+            settle(productId);
+        }
+    }
+
+    // Closes the auction from what the database holds. Safe to repeat after a failure, and to run
+    // in several instances at once: only one of them sells the product.
+    private void settle(int productId) {
+        Auction auction = auctions.get(productId);
+        Auction.State outcome;
+        try {
+            outcome = settleStored(productId);
+        } catch (SQLException e) {
+            String name = auction == null ? "product " + productId : auction.productName;
+            System.err.println("Could not record the winning bid for " + name + ", will retry: " + e.getMessage());
+            e.printStackTrace();
+            if (auction != null) {
+                // Closed here with the leader this instance knows of; the retry sells to the stored one
+                Auction.State current;
+                do {
+                    current = auction.state.get();
+                } while (!current.closed && !auction.state.compareAndSet(current, new Auction.State(current.leader, true)));
+                for (AuctionListener listener : listeners) {
+                    listener.auctionClosed(auction, auction.state.get().leader);
+                }
+            }
+            return;
+        }
+        if (outcome == null || auction == null) {
+            return; // not over yet, or an auction this instance never showed
+        }
+        auction.state.set(outcome); // closed states are final, so this replaces any open one for good
+        auction.recorded = outcome.leader != null;
+        for (AuctionListener listener : listeners) {
+            listener.auctionClosed(auction, outcome.leader);
+        }
+    }
+
+    // Sells the product to the stored leader and takes it off auction in one transaction. The
+    // conditional update on products lets only one settlement sell it; a later one just reads
+    // the stored leader back. Returns the closed state, or null if the auction has not ended.
+    // An auction that ended without bids is deleted and its product left on auction, so the
+    // next start auctions it afresh.
+    private Auction.State settleStored(int productId) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            connection.setAutoCommit(false);
+            try {
+                boolean retired;
+                try (PreparedStatement retire = connection.prepareStatement(
+                        "UPDATE products SET is_auction = 0 WHERE id = ? AND is_auction = 1")) {
+                    retire.setInt(1, productId);
+                    retired = retire.executeUpdate() == 1;
+                }
+                String leader;
+                Money amount;
+                try (PreparedStatement read = connection.prepareStatement(
+                        "SELECT ends_at, current_bid, leader FROM auctions WHERE product_id = ? FOR UPDATE")) {
+                    read.setInt(1, productId);
+                    try (ResultSet resultSet = read.executeQuery()) {
+                        if (!resultSet.next()) {
+                            connection.rollback();
+                            return new Auction.State(null, true);
+                        }
+                        if (resultSet.getLong("ends_at") > System.currentTimeMillis()) {
+                            connection.rollback();
+                            return null;
+                        }
+                        leader = resultSet.getString("leader");
+                        amount = Money.parse(resultSet.getString("current_bid"));
+                    }
+                }
+                Bid winner = leader == null ? null : new Bid(leader, amount, 0); // the time is only in auction_bids
+                if (!retired || winner == null) {
+                    connection.rollback();
+                    if (retired) {
+                        try (PreparedStatement delete = connection.prepareStatement(
+                                "DELETE FROM auctions WHERE product_id = ? AND leader IS NULL")) {
+                            delete.setInt(1, productId);
+                            delete.executeUpdate();
+                        }
+                        connection.commit();
+                    }
+                    return new Auction.State(winner, true);
+                }
+                int orderId;
+                try (PreparedStatement order = connection.prepareStatement(
+                        "INSERT INTO orders (order_date, total_amount) VALUES (NOW(), ?)", Statement.RETURN_GENERATED_KEYS)) {
+                    order.setBigDecimal(1, winner.amount.toBigDecimal());
+                    order.executeUpdate();
+                    try (ResultSet keys = order.getGeneratedKeys()) {
+                        if (!keys.next()) {
+                            throw new SQLException("Failed to retrieve order ID.");
+                        }
+                        orderId = keys.getInt(1);
+                    }
+                }
+                try (PreparedStatement item = connection.prepareStatement(
+                        "INSERT INTO order_items (order_id, product_id, quantity, price) VALUES (?, ?, ?, ?)")) {
+                    item.setInt(1, orderId);
+                    item.setInt(2, productId);
+                    item.setInt(3, 1);
+                    item.setBigDecimal(4, winner.amount.toBigDecimal());
+                    item.executeUpdate();
+                }
+                connection.commit();
+                return new Auction.State(winner, true);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
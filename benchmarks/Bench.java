@@ -0,0 +1,112 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A small benchmark runner shared by the programs in this directory; the repository has no
+ * build file, so there is no JMH. Each run warms the operation up, then calls it from the
+ * requested number of threads for a fixed time and reports throughput and mean latency.
+ *
+ * Settings (system properties):
+ *   bench.warmup.ms   warmup time per run (default 1000)
+ *   bench.measure.ms  measured time per run (default 2000)
+ *   bench.sizes       data sizes, comma separated (default set by each program)
+ *   bench.threads     thread counts, comma separated (default 1,4)
+ */
+final class Bench {
+    static final long WARMUP_MS = Long.getLong("bench.warmup.ms", 1000);
+    static final long MEASURE_MS = Long.getLong("bench.measure.ms", 2000);
+
+    // Captured at startup so a benchmark can silence System.out around code that logs per call
+    private static final PrintStream OUT = System.out;
+
+    /** Results are written here so the JIT cannot discard the work that produced them. */
+    static volatile Object sink;
+
+    interface Op {
+        /** One operation; {@code thread} is 0..threads-1, e.g. to pick a per-thread random stream. */
+        Object run(int thread) throws Exception;
+    }
+
+    private Bench() {
+    }
+
+    static int[] sizes(String defaults) {
+        return ints(System.getProperty("bench.sizes", defaults));
+    }
+
+    static int[] threads() {
+        return ints(System.getProperty("bench.threads", "1,4"));
+    }
+
+    static int[] ints(String csv) {
+        String[] parts = csv.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim().replace("_", ""));
+        }
+        return values;
+    }
+
+    static void header() {
+        OUT.printf("%-34s %10s %8s %14s %12s%n", "benchmark", "size", "threads", "ops/s", "ns/op");
+    }
+
+    static void run(String name, int size, int threads, Op op) throws Exception {
+        measure(op, threads, WARMUP_MS);
+        long[] result = measure(op, threads, MEASURE_MS);
+        long ops = result[0];
+        double seconds = result[1] / 1e9;
+        // Mean latency of one call as seen by one thread
+        double nsPerOp = ops == 0 ? Double.NaN : result[1] * (double) threads / ops;
+        OUT.printf("%-34s %10d %8d %14.0f %12.1f%n", name, size, threads, ops / seconds, nsPerOp);
+    }
+
+    private static long[] measure(Op op, int threads, long millis) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads * 16]; // one slot per thread, spaced out to avoid false sharing
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                long n = 0;
+                Object last = null;
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        last = op.run(thread);
+                        n++;
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+                sink = last;
+                counts[thread * 16] = n;
+            }, "bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (!failures.isEmpty()) {
+            throw new RuntimeException("benchmark operation failed", failures.get(0));
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            total += counts[t * 16];
+        }
+        return new long[]{total, elapsed};
+    }
+}
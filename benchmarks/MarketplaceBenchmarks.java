@@ -0,0 +1,180 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hot paths of MarketplaceApp from src/app/Updated_MarkeplaceApp.java: the home page name
+ * search (the original substring scan next to ProductSearchIndex), the cart subtotal
+ * (re-summing the cart next to CartService), the search field's type-ahead, and checkout through placeOrderBatched() and
+ * through the group-commit OrderPipeline.
+ *
+ * Build and run from the repository root (javac wants the file named after its public class):
+ *   mkdir -p /tmp/bench/src && cp src/app/Updated_MarkeplaceApp.java /tmp/bench/src/MarketplaceApp.java
+ *   javac -d /tmp/bench benchmarks/Bench.java benchmarks/MarketplaceBenchmarks.java /tmp/bench/src/MarketplaceApp.java
+ *   java -cp /tmp/bench -Dbench.sizes=1000,100000,1000000 -Dbench.threads=1,4 MarketplaceBenchmarks
+ *
+ * Checkout needs a database: put a JDBC driver on the class path and pass
+ * -Dbench.jdbc.url=... (plus -Dbench.jdbc.user / -Dbench.jdbc.password). The orders and
+ * order_items tables are created if they are missing; each thread uses its own connection.
+ * The pipeline's batch size and linger time come from -Dmarketplace.orders.batchSize and
+ * -Dmarketplace.orders.lingerMillis.
+ */
+public class MarketplaceBenchmarks {
+    private static final String[] ADJECTIVES = {"red", "wireless", "vintage", "leather", "smart", "wooden", "steel", "cotton"};
+    private static final String[] NOUNS = {"phone", "chair", "watch", "jacket", "lamp", "speaker", "bottle", "shoes", "camera", "desk"};
+    private static final String[] QUERIES = {"phone", "red", "leather jacket", "wat", "vintage lamp", "camera 12"};
+    private static final int CART_LINES = 50;
+
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        for (int size : Bench.sizes("1000,100000,1000000")) {
+            List<MarketplaceApp.Product> catalog = catalog(size);
+            MarketplaceApp.ProductSearchIndex index = new MarketplaceApp.ProductSearchIndex();
+            List<String> names = new ArrayList<>(size);
+            List<Integer> unitsSold = new ArrayList<>(size);
+            for (MarketplaceApp.Product p : catalog) {
+                index.add(p);
+                names.add(p.name);
+                unitsSold.add(ThreadLocalRandom.current().nextInt(1000));
+            }
+            long buildStart = System.nanoTime();
+            MarketplaceApp.SuggestionIndex suggestions = new MarketplaceApp.SuggestionIndex(names, unitsSold);
+            System.out.printf("# SuggestionIndex over %d names built in %.0f ms%n", size, (System.nanoTime() - buildStart) / 1e6);
+            for (int threads : Bench.threads()) {
+                // What homePage() did before the index: lower-case every name and test contains()
+                Bench.run("search (substring scan)", size, threads, t -> {
+                    String searchText = randomQuery();
+                    List<MarketplaceApp.Product> results = new ArrayList<>();
+                    for (MarketplaceApp.Product p : catalog) {
+                        if (p.name.toLowerCase().contains(searchText)) {
+                            results.add(p);
+                        }
+                    }
+                    return results.size();
+                });
+
+                Bench.run("search (ProductSearchIndex)", size, threads, t -> index.search(randomQuery()).size());
+
+                // The search field's type-ahead: the 8 best-selling names with a word starting with the query
+                Bench.run("suggest (SuggestionIndex)", size, threads, t -> suggestions.suggest(randomQuery(), 8).size());
+            }
+        }
+
+        // Cart totals do not depend on the catalog size, only on the number of lines
+        List<MarketplaceApp.Product> products = catalog(CART_LINES);
+        for (int threads : Bench.threads()) {
+            Bench.run("cart subtotal (re-sum list)", CART_LINES, threads, t -> {
+                List<MarketplaceApp.Product> cart = new ArrayList<>();
+                MarketplaceApp.Money total = MarketplaceApp.Money.zero(MarketplaceApp.Money.DEFAULT_CURRENCY);
+                for (MarketplaceApp.Product p : products) {
+                    cart.add(p);
+                    total = MarketplaceApp.Money.zero(MarketplaceApp.Money.DEFAULT_CURRENCY);
+                    for (MarketplaceApp.Product inCart : cart) {
+                        total = total.plus(inCart.price); // summed again after every add
+                    }
+                }
+                return total;
+            });
+
+            Bench.run("cart subtotal (CartService)", CART_LINES, threads, t -> {
+                MarketplaceApp.CartService cart = new MarketplaceApp.CartService();
+                for (MarketplaceApp.Product p : products) {
+                    cart.add(p, 1);
+                }
+                return cart.getSubtotal();
+            });
+        }
+
+        String url = System.getProperty("bench.jdbc.url");
+        if (url != null) {
+            checkout(url, products);
+        }
+    }
+
+    private static void checkout(String url, List<MarketplaceApp.Product> products) throws Exception {
+        int maxThreads = 0;
+        for (int threads : Bench.threads()) {
+            maxThreads = Math.max(maxThreads, threads);
+        }
+        Connection[] connections = new Connection[maxThreads];
+        for (int i = 0; i < maxThreads; i++) {
+            connections[i] = DriverManager.getConnection(url,
+                    System.getProperty("bench.jdbc.user"), System.getProperty("bench.jdbc.password"));
+        }
+        createTables(connections[0]);
+        MarketplaceApp.ProductIdCache productIds = new MarketplaceApp.ProductIdCache();
+
+        try {
+            for (int lines : new int[]{1, 10, CART_LINES}) {
+                for (int threads : Bench.threads()) {
+                    Bench.run("checkout (placeOrderBatched)", lines, threads, t -> {
+                        MarketplaceApp.CartService cart = new MarketplaceApp.CartService();
+                        for (int i = 0; i < lines; i++) {
+                            cart.add(products.get(i), 1 + i % 3);
+                        }
+                        return MarketplaceApp.placeOrderBatched(connections[t], cart.snapshot(), productIds);
+                    });
+                }
+            }
+
+            // The same carts through the group-commit pipeline: concurrent checkouts share commits
+            MarketplaceApp.ConnectionPool pool = new MarketplaceApp.ConnectionPool(url,
+                    System.getProperty("bench.jdbc.user"), System.getProperty("bench.jdbc.password"), 1, 2);
+            MarketplaceApp.OrderPipeline pipeline = new MarketplaceApp.OrderPipeline(pool, productIds, 10000,
+                    MarketplaceApp.ORDER_BATCH_SIZE, MarketplaceApp.ORDER_LINGER_MILLIS);
+            try {
+                for (int lines : new int[]{1, 10, CART_LINES}) {
+                    for (int threads : Bench.threads()) {
+                        Bench.run("checkout (OrderPipeline)", lines, threads, t -> {
+                            MarketplaceApp.CartService cart = new MarketplaceApp.CartService();
+                            for (int i = 0; i < lines; i++) {
+                                cart.add(products.get(i), 1 + i % 3);
+                            }
+                            return pipeline.submit(cart.snapshot()).get();
+                        });
+                    }
+                }
+            } finally {
+                pipeline.close(5000);
+                pool.close();
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    private static void createTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS orders ("
+                    + "id INT AUTO_INCREMENT PRIMARY KEY, order_date TIMESTAMP, total_amount DECIMAL(12, 2))");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS order_items ("
+                    + "id INT AUTO_INCREMENT PRIMARY KEY, order_id INT, product_id INT, quantity INT, price DECIMAL(12, 2))");
+        }
+    }
+
+    private static List<MarketplaceApp.Product> catalog(int size) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<MarketplaceApp.Product> catalog = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            String name = capitalize(ADJECTIVES[random.nextInt(ADJECTIVES.length)]) + " "
+                    + NOUNS[random.nextInt(NOUNS.length)] + " " + i;
+            MarketplaceApp.Money price = MarketplaceApp.Money.ofMinor(100 + random.nextInt(1_000_000), MarketplaceApp.Money.DEFAULT_CURRENCY);
+            catalog.add(new MarketplaceApp.Product(name, price, random.nextInt(10) == 0, i));
+        }
+        return catalog;
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static String randomQuery() {
+        return QUERIES[ThreadLocalRandom.current().nextInt(QUERIES.length)];
+    }
+}
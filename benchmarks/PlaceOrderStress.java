@@ -0,0 +1,147 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress check for DatabaseService.placeOrder() in Contributions/ShoppingManagerSystem.java.
+ * Many threads place orders whose carts overlap on a few products with limited stock, so
+ * orders race for the same units and the last ones are turned away. Afterwards every product
+ * must have stock >= 0 and units sold + stock left must equal the stock it started with,
+ * counting sold units both from the orders accepted and from the orders the service stored.
+ *
+ * Build and run from the repository root:
+ *   javac -d /tmp/stress benchmarks/PlaceOrderStress.java Contributions/ShoppingManagerSystem.java
+ *   java -cp /tmp/stress -Dstress.threads=16 PlaceOrderStress
+ *
+ * Options: stress.threads (16), stress.products (8), stress.stock (150000 per product, enough
+ * for most but not all orders), stress.orders (20000 per thread and round), stress.rounds (5).
+ * Set -Dstress.data.dir=<empty dir> to run with the journal on. Exits with status 1 on the
+ * first broken invariant.
+ */
+public class PlaceOrderStress {
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("stress.threads", 16);
+        int productCount = Integer.getInteger("stress.products", 8);
+        int stock = Integer.getInteger("stress.stock", 150000);
+        int ordersPerThread = Integer.getInteger("stress.orders", 20000);
+        int rounds = Integer.getInteger("stress.rounds", 5);
+        String dataDir = System.getProperty("stress.data.dir");
+
+        for (int round = 1; round <= rounds; round++) {
+            DatabaseService db = new DatabaseService(dataDir == null ? null : new File(dataDir, "round" + round));
+            try {
+                run(db, round, threads, productCount, stock, ordersPerThread);
+            } finally {
+                db.close();
+            }
+        }
+        System.out.println("OK");
+    }
+
+    private static void run(DatabaseService db, int round, int threads, int productCount, int stock, int ordersPerThread) throws Exception {
+        // Only the stress products take part; the sample catalog is left out of the carts
+        int[] ids = new int[productCount];
+        for (int i = 0; i < productCount; i++) {
+            Product product = new Product("Stress " + i, 1 + i, stock, "Stress", "Contended product " + i);
+            db.addProduct(product);
+            ids[i] = product.getId();
+        }
+
+        AtomicLong[] sold = new AtomicLong[productCount]; // units in accepted orders, per product
+        for (int i = 0; i < productCount; i++) {
+            sold[i] = new AtomicLong();
+        }
+        AtomicLong accepted = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        List<Throwable> errors = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String customer = "stress" + t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int n = 0; n < ordersPerThread; n++) {
+                        // One to four lines, sometimes naming the same product twice
+                        Order order = new Order(customer);
+                        int[] units = new int[productCount];
+                        int lines = 1 + random.nextInt(4);
+                        for (int l = 0; l < lines; l++) {
+                            int p = random.nextInt(productCount);
+                            int quantity = 1 + random.nextInt(3);
+                            order.addItem(new OrderItem(ids[p], "Stress " + p, quantity, 1 + p));
+                            units[p] += quantity;
+                        }
+                        if (db.placeOrder(order)) {
+                            accepted.incrementAndGet();
+                            for (int p = 0; p < productCount; p++) {
+                                sold[p].addAndGet(units[p]);
+                            }
+                        } else {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "stress-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - began;
+        if (!errors.isEmpty()) {
+            errors.get(0).printStackTrace();
+            fail(round, errors.size() + " worker(s) threw");
+        }
+
+        // Units sold according to the orders the service kept
+        Map<Integer, Long> stored = new HashMap<>();
+        long storedOrders = 0;
+        for (int t = 0; t < threads; t++) {
+            for (Order order : db.getOrdersForUser("stress" + t)) {
+                storedOrders++;
+                for (OrderItem item : order.getItems()) {
+                    stored.merge(item.getProductId(), (long) item.getQuantity(), Long::sum);
+                }
+            }
+        }
+        if (storedOrders != accepted.get()) {
+            fail(round, accepted.get() + " orders accepted but " + storedOrders + " stored");
+        }
+        for (int p = 0; p < productCount; p++) {
+            int left = db.getProductById(ids[p]).getStock();
+            long units = sold[p].get();
+            if (left < 0) {
+                fail(round, "product " + ids[p] + " has stock " + left);
+            }
+            if (units + left != stock) {
+                fail(round, "product " + ids[p] + ": sold " + units + " + left " + left + " != initial " + stock);
+            }
+            if (stored.getOrDefault(ids[p], 0L) != units) {
+                fail(round, "product " + ids[p] + ": stored orders hold " + stored.getOrDefault(ids[p], 0L)
+                        + " units, accepted orders " + units);
+            }
+        }
+        System.out.printf("round %d: %d threads, %d accepted, %d rejected in %.0f ms, invariants hold%n",
+                round, threads, accepted.get(), rejected.get(), elapsed / 1e6);
+    }
+
+    private static void fail(int round, String message) {
+        System.err.println("round " + round + ": " + message);
+        System.exit(1);
+    }
+}
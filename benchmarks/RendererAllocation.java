@@ -0,0 +1,99 @@
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import javax.swing.CellRendererPane;
+import javax.swing.JButton;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.TableCellRenderer;
+
+/**
+ * Bytes allocated per getTableCellRendererComponent() call of the action-column ButtonRenderer,
+ * read from ThreadMXBean.getThreadAllocatedBytes around a long run of calls on the EDT. The
+ * renderer runs for every visible cell on every repaint. It sits in a CellRendererPane inside a
+ * JTable, as it does while a table paints, and each case is also run with the cell painted into
+ * an image, to show the renderer's share of a whole cell. A plain JButton that calls setText on
+ * every call is measured alongside for comparison.
+ *
+ * The program loads whichever ButtonRenderer is on the class path, so build it once per app,
+ * from the repository root (both apps declare a public MarketplaceApp, hence the copies):
+ *   mkdir -p /tmp/alloc/m && cp src/app/Updated_MarkeplaceApp.java /tmp/alloc/m/MarketplaceApp.java
+ *   javac -d /tmp/alloc/m benchmarks/RendererAllocation.java /tmp/alloc/m/MarketplaceApp.java
+ *   java -Djava.awt.headless=true -cp /tmp/alloc/m RendererAllocation
+ *
+ *   mkdir -p /tmp/alloc/c && cp Contributions/UpdatedMarketplaceApp.java /tmp/alloc/c/MarketplaceApp.java
+ *   javac -d /tmp/alloc/c benchmarks/RendererAllocation.java /tmp/alloc/c/MarketplaceApp.java
+ *   java -Djava.awt.headless=true -cp /tmp/alloc/c RendererAllocation
+ *
+ * Options: alloc.calls, calls per measured run (default 1000000).
+ */
+public class RendererAllocation {
+    private static final int CALLS = Integer.getInteger("alloc.calls", 1000000);
+    private static final String[] LABELS = {"Add to Cart", "Remove"};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        TableCellRenderer renderer = loadRenderer();
+        JButton plain = new JButton();
+        TableCellRenderer setEveryCall = (table, value, selected, focus, row, column) -> {
+            plain.setText(value == null ? "" : value.toString());
+            return plain;
+        };
+        SwingUtilities.invokeAndWait(() -> {
+            JTable table = new JTable(4, 4);
+            CellRendererPane pane = new CellRendererPane();
+            table.add(pane);
+            pane.add((Component) renderer);
+            pane.add(plain);
+            Graphics graphics = new BufferedImage(200, 40, BufferedImage.TYPE_INT_ARGB).getGraphics();
+
+            System.out.printf("%-52s %10s %12s%n", "renderer", "calls", "bytes/call");
+            String name = renderer.getClass().getName();
+            report(name + ", same label", table, renderer, 1, null, null);
+            report(name + ", alternating labels", table, renderer, 2, null, null);
+            report(name + ", same label, painted", table, renderer, 1, pane, graphics);
+            report("JButton.setText every call, same label", table, setEveryCall, 1, null, null);
+            report("JButton.setText every call, alternating labels", table, setEveryCall, 2, null, null);
+            report("JButton.setText every call, same label, painted", table, setEveryCall, 1, pane, graphics);
+        });
+    }
+
+    // The Updated_MarkeplaceApp renderer is nested in MarketplaceApp; the Contributions one is top level
+    private static TableCellRenderer loadRenderer() throws Exception {
+        for (String name : new String[]{"MarketplaceApp$ButtonRenderer", "ButtonRenderer"}) {
+            try {
+                return (TableCellRenderer) Class.forName(name).getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                // try the next layout
+            }
+        }
+        throw new IllegalStateException("no ButtonRenderer on the class path");
+    }
+
+    private static void report(String name, JTable table, TableCellRenderer renderer, int labels,
+                               CellRendererPane pane, Graphics graphics) {
+        run(table, renderer, labels, pane, graphics); // warm up, so the JIT has settled before measuring
+        long thread = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(thread);
+        run(table, renderer, labels, pane, graphics);
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - before;
+        System.out.printf("%-52s %10d %12.2f%n", name, CALLS, (double) allocated / CALLS);
+    }
+
+    private static void run(JTable table, TableCellRenderer renderer, int labels, CellRendererPane pane, Graphics graphics) {
+        Component last = null;
+        for (int i = 0; i < CALLS; i++) {
+            last = renderer.getTableCellRendererComponent(table, LABELS[i % labels], false, false, i & 3, 3);
+            if (pane != null) {
+                pane.paintComponent(graphics, last, table, 0, 0, 100, 20, true);
+            }
+        }
+        sink = last;
+    }
+}
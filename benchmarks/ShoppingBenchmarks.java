@@ -0,0 +1,122 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hot paths of DatabaseService from Contributions/ShoppingManagerSystem.java:
+ * getAllProducts(), getOrdersForUser(), placeOrder() and the Products tab's facet filters,
+ * for each catalog size and thread count.
+ *
+ * Build and run from the repository root:
+ *   javac -d /tmp/bench benchmarks/Bench.java benchmarks/ShoppingBenchmarks.java Contributions/ShoppingManagerSystem.java
+ *   java -cp /tmp/bench -Dbench.sizes=1000,100000,1000000 -Dbench.threads=1,4 ShoppingBenchmarks
+ *
+ * placeOrder runs against the in-memory service. Set -Dbench.data.dir=<empty dir> to also run
+ * it with the journal on, which adds the fsync group commit to every order.
+ */
+public class ShoppingBenchmarks {
+    private static final String[] CATEGORIES = {"Fruits", "Dairy", "Bakery", "Meat", "Snacks", "Drinks", "Frozen", "Household"};
+    private static final int CUSTOMERS = 1000;
+    private static final int ORDERS_PER_CUSTOMER = 20;
+    private static final Map<FacetIndex.Facet, Set<String>> SELECTION = new EnumMap<>(FacetIndex.Facet.class);
+
+    static {
+        SELECTION.put(FacetIndex.Facet.CATEGORY, new HashSet<>(Arrays.asList("Dairy", "Snacks")));
+        SELECTION.put(FacetIndex.Facet.PRICE, Collections.singleton("$5 - $20"));
+        SELECTION.put(FacetIndex.Facet.TYPE, Collections.singleton(FacetIndex.FIXED_PRICE));
+        SELECTION.put(FacetIndex.Facet.AVAILABILITY, Collections.singleton(FacetIndex.IN_STOCK));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        for (int size : Bench.sizes("1000,100000,1000000")) {
+            DatabaseService db = new DatabaseService(null);
+            fill(db, size);
+            int[] ids = db.getProductIds();
+            for (int threads : Bench.threads()) {
+                Bench.run("getAllProducts", size, threads, t -> db.getAllProducts());
+
+                Bench.run("getOrdersForUser", size, threads, t -> {
+                    String customer = "customer" + ThreadLocalRandom.current().nextInt(CUSTOMERS);
+                    List<Order> history = db.getOrdersForUser(customer);
+                    return history.size();
+                });
+
+                Bench.run("placeOrder", size, threads, t -> placeRandomOrder(db, ids, "bench" + t));
+
+                // "Dairy or Snacks, $5 - $20, fixed price, in stock", by checking every product
+                Bench.run("filter (list scan)", size, threads, t -> {
+                    List<Product> matches = new ArrayList<>();
+                    for (Product p : db.getAllProducts()) {
+                        if ((p.getCategory().equals("Dairy") || p.getCategory().equals("Snacks"))
+                                && FacetIndex.priceBand(p.getPrice()).equals("$5 - $20")
+                                && !p.isAuction() && p.getStock() > 0) {
+                            matches.add(p);
+                        }
+                    }
+                    return matches.size();
+                });
+
+                Bench.run("filter (FacetIndex)", size, threads, t -> db.getProductIds(SELECTION).length);
+
+                Bench.run("facet counts (FacetIndex)", size, threads, t -> db.getFacetCounts(SELECTION));
+            }
+            db.close();
+        }
+
+        String dataDir = System.getProperty("bench.data.dir");
+        if (dataDir != null) {
+            int size = Bench.sizes("1000")[0];
+            DatabaseService db = new DatabaseService(new File(dataDir));
+            fill(db, size);
+            int[] ids = db.getProductIds();
+            for (int threads : Bench.threads()) {
+                Bench.run("placeOrder (journaled)", size, threads, t -> placeRandomOrder(db, ids, "bench" + t));
+            }
+            db.close();
+        }
+    }
+
+    // `size` products with stock that will not run out, plus CUSTOMERS customers with some history each
+    private static void fill(DatabaseService db, int size) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Product sample : db.getAllProducts()) {
+            sample.setStock(Integer.MAX_VALUE / 2);
+            db.updateProduct(sample);
+        }
+        for (int i = db.getProductCount(); i < size; i++) {
+            Product product = new Product("Product " + i, 1 + random.nextInt(10000) / 100.0, Integer.MAX_VALUE / 2,
+                    CATEGORIES[i % CATEGORIES.length], "Benchmark product number " + i);
+            product.setAuction(i % 10 == 0);
+            db.addProduct(product);
+        }
+        int[] ids = db.getProductIds();
+        for (int c = 0; c < CUSTOMERS; c++) {
+            for (int o = 0; o < ORDERS_PER_CUSTOMER; o++) {
+                placeRandomOrder(db, ids, "customer" + c);
+            }
+        }
+    }
+
+    // An order of one to five random lines
+    private static boolean placeRandomOrder(DatabaseService db, int[] ids, String customer) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Order order = new Order(customer);
+        int lines = 1 + random.nextInt(5);
+        for (int i = 0; i < lines; i++) {
+            Product p = db.getProductById(ids[random.nextInt(ids.length)]);
+            order.addItem(new OrderItem(p.getId(), p.getName(), 1 + random.nextInt(3), p.getPrice()));
+        }
+        if (!db.placeOrder(order)) {
+            throw new IllegalStateException("order rejected: " + customer);
+        }
+        return true;
+    }
+}
@@ -11,6 +11,7 @@ public class MarketplaceApp extends JFrame {
     JPanel mainPanel;
     ArrayList<Product> cart = new ArrayList<>();
     HashMap<String, ArrayList<Product>> categoryProducts = new HashMap<>();
+    HashMap<String, JPanel> categoryPanels = new HashMap<>(); // each category screen is built only once
 
     public MarketplaceApp() {
         setTitle("Marketplace");
@@ -140,6 +141,12 @@ public class MarketplaceApp extends JFrame {
     }
 
     private void showProductsForCategory(String category) {
+        // The catalog here is fixed, so a screen built once can simply be shown again
+        if (categoryPanels.containsKey(category)) {
+            cardLayout.show(mainPanel, category);
+            return;
+        }
+
         JPanel productPanel = new JPanel(new BorderLayout());
         productPanel.setBackground(Color.WHITE);
 
@@ -184,6 +191,7 @@ public class MarketplaceApp extends JFrame {
         bottom.add(viewCart);
         productPanel.add(bottom, BorderLayout.SOUTH);
 
+        categoryPanels.put(category, productPanel);
         mainPanel.add(productPanel, category);
         cardLayout.show(mainPanel, category);
     }
@@ -4,21 +4,134 @@ updated on 30-04-2025  8:51*/
 
 
 import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.sql.*; // For database connectivity
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List; // Use List interface
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 public class MarketplaceApp extends JFrame {
     CardLayout cardLayout;
     JPanel mainPanel;
-    ArrayList<Product> cart = new ArrayList<>();
-    HashMap<String, List<Product>> categoryProducts = new HashMap<>();
-    Connection connection; // Database connection
+    CartService cart = new CartService(); // product id -> line with quantity, only touched on the EDT
+    HashMap<String, CategoryPage> categoryPages = new HashMap<>(); // the pages of each category loaded so far
+    ConnectionPool connectionPool; // every task borrows its own connection from here
+    AsyncDataAccess dataAccess; // runs every JDBC call off the Event Dispatch Thread
+    OrderPipeline orderPipeline; // checkouts, committed in groups
     String userRole = "buyer"; // Default user role
+    ProductSearchIndex searchIndex = new ProductSearchIndex(); // name/description index over the snapshot and loaded pages
+    boolean snapshotIndexed = false; // until then snapshot rows are searched in the database too
+    ProductIdCache productIds = new ProductIdCache(); // name -> id for every product seen, read by checkout workers
+    SuggestionService suggestions = new SuggestionService(); // type-ahead for the search field, ranked by units sold
+    JLabel statusLabel; // shows what the background database work is doing
+    JProgressBar progressBar;
+    int pendingTasks = 0; // background tasks still running, only touched on the EDT
+
+    // Category screens are built once per category and role and then refreshed in place.
+    // Only the most recently shown ones stay in mainPanel; older ones are removed from the CardLayout.
+    static final int MAX_CACHED_VIEWS = 8;
+    LinkedHashMap<String, ProductListView> viewCache = new LinkedHashMap<String, ProductListView>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProductListView> eldest) {
+            if (size() > MAX_CACHED_VIEWS) {
+                mainPanel.remove(eldest.getValue().panel);
+                return true;
+            }
+            return false;
+        }
+    };
+    ProductListView searchView; // the single, reused search results screen
+
+    // rewriteBatchedStatements lets the MySQL driver send a whole JDBC batch as one multi-row INSERT.
+    // Override with -Dmarketplace.db.url=... to run against another database, e.g. an embedded H2.
+    static final String DB_URL = System.getProperty("marketplace.db.url", "jdbc:mysql://localhost:3306/marketplace?rewriteBatchedStatements=true");
+    static final String DB_USER = System.getProperty("marketplace.db.user", "root"); // Replace with your credentials
+    static final String DB_PASSWORD = System.getProperty("marketplace.db.password", "");
+
+    // The catalog is read a page at a time per category, so startup cost and memory depend on
+    // what has been looked at rather than on the size of the products table.
+    static final int CATEGORY_PAGE_SIZE = Integer.getInteger("marketplace.page.size", 50);
+    static final int SEARCH_LIMIT = 100; // rows a database-side search may return; the results title says when it cut
+    // Search field type-ahead: names shown at most, and how long typing must pause before a lookup
+    static final int SUGGESTION_LIMIT = 8;
+    static final int SUGGEST_DELAY_MILLIS = 120;
+    static final String[] CATALOG_CATEGORIES = {"Electronics", "Clothing", "Home & Garden", "Sports"};
+    // Local copy of the catalog the next start boots from; rebuilt in the background when older than this
+    static final java.io.File SNAPSHOT_FILE = new java.io.File(System.getProperty("marketplace.snapshot", "marketplace-catalog.snap")); // base name; files are <name>.<generation>
+    static final long SNAPSHOT_MAX_AGE_HOURS = Long.getLong("marketplace.snapshot.maxAgeHours", 24);
+    // A checkout the database aborts over a conflict (deadlock, lock wait timeout) is tried this many
+    // times in all, waiting about CHECKOUT_BACKOFF_MILLIS, then twice that, and so on in between.
+    static final int CHECKOUT_ATTEMPTS = Integer.getInteger("marketplace.checkout.attempts", 4);
+    static final long CHECKOUT_BACKOFF_MILLIS = 20;
+    // Checkouts are written in groups sharing one commit: up to ORDER_BATCH_SIZE orders, or whatever
+    // arrived within ORDER_LINGER_MILLIS of the first. Raising either trades latency for throughput.
+    static final int ORDER_BATCH_SIZE = Integer.getInteger("marketplace.orders.batchSize", 50);
+    static final long ORDER_LINGER_MILLIS = Long.getLong("marketplace.orders.lingerMillis", 5);
+    static final int ORDER_QUEUE_CAPACITY = Integer.getInteger("marketplace.orders.queueCapacity", 1000);
+
+    // Startup timing, reported once the first catalog pages are in. Set when the class is loaded,
+    // which is as close to JVM launch as plain code gets.
+    static final long LAUNCH_NANOS = System.nanoTime();
+    long firstFrameNanos = 0;
+    HashMap<String, JButton> categoryButtons = new HashMap<>(); // disabled until the category can be shown
+
+    // Latencies and counts of the hot paths. Shown on the Diagnostics screen (Ctrl+Shift+D),
+    // exported over JMX, and over HTTP on localhost with -Dmarketplace.metrics.port=<port>.
+    static final MetricsRegistry METRICS = new MetricsRegistry("marketplace_");
+    static final MetricsRegistry.Latency FETCH_PAGE_LATENCY = METRICS.latency("db.fetchCategoryPage");
+    static final MetricsRegistry.Latency DB_SEARCH_LATENCY = METRICS.latency("db.searchProducts");
+    static final MetricsRegistry.Latency INSERT_LATENCY = METRICS.latency("db.insertProduct");
+    static final MetricsRegistry.Latency CHECKOUT_LATENCY = METRICS.latency("db.checkout"); // placeOrderBatched only; pipelined orders are timed below
+    static final MetricsRegistry.Latency SNAPSHOT_SAVE_LATENCY = METRICS.latency("catalog.snapshotSave");
+    static final MetricsRegistry.Latency SNAPSHOT_OPEN_LATENCY = METRICS.latency("catalog.snapshotOpen");
+    static final MetricsRegistry.Latency INDEX_SEARCH_LATENCY = METRICS.latency("search.index");
+    static final MetricsRegistry.Latency SUGGEST_LATENCY = METRICS.latency("search.suggest");
+    static final MetricsRegistry.Latency QUEUE_WAIT_LATENCY = METRICS.latency("dataAccess.queueWait"); // submit to start
+    static final MetricsRegistry.Latency TASK_LATENCY = METRICS.latency("dataAccess.task"); // connection borrow + work
+    static final MetricsRegistry.Latency POOL_WAIT_LATENCY = METRICS.latency("pool.wait");
+    static final LongAdder CHECKOUT_FAILURES = METRICS.counter("db.checkout.failed");
+    static final LongAdder CHECKOUT_RETRIES = METRICS.counter("db.checkout.retried"); // conflicts retried
+    static final LongAdder CHECKOUT_OUT_OF_STOCK = METRICS.counter("db.checkout.outOfStock");
+    static final LongAdder CHECKOUT_ROUND_TRIPS = METRICS.counter("db.checkout.roundTrips"); // committed checkouts only
+    static final MetricsRegistry.Latency ORDER_LATENCY = METRICS.latency("orders.pipeline.order"); // submit to commit: queue wait plus the batch transaction
+    static final MetricsRegistry.Latency ORDER_BATCH_LATENCY = METRICS.latency("orders.pipeline.batch"); // one transaction
+    static final LongAdder ORDER_BATCHES = METRICS.counter("orders.pipeline.batches");
+    static final LongAdder ORDER_ROUND_TRIPS = METRICS.counter("orders.pipeline.roundTrips"); // over all batches; divide by batches for the mean
+    static final LongAdder ORDERS_COMMITTED = METRICS.counter("orders.pipeline.committed");
+    static final LongAdder ORDERS_QUEUE_FULL = METRICS.counter("orders.pipeline.queueFull");
+    static final LongAdder TASK_FAILURES = METRICS.counter("dataAccess.failed");
+    static final LongAdder TASK_REJECTIONS = METRICS.counter("dataAccess.rejected");
+    static final LongAdder STATEMENT_HITS = METRICS.counter("pool.statementCache.hit");
+    static final LongAdder STATEMENT_MISSES = METRICS.counter("pool.statementCache.miss");
+    static final LongAdder NAME_LOOKUPS = METRICS.counter("db.productIdLookups"); // IN queries run by checkout
 
     public MarketplaceApp() {
         setTitle("Marketplace");
@@ -27,17 +140,10 @@ public class MarketplaceApp extends JFrame {
         setLocationRelativeTo(null);
         setLayout(new BorderLayout());
 
-        // Initialize database connection
-        try {
-            connection = DriverManager.getConnection("jdbc:mysql://localhost:3306/marketplace", "root", ""); // Replace with your credentials
-            System.out.println("Connected to the database!");
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Database connection failed: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            // Consider exiting the application if the database connection is crucial.
-            e.printStackTrace(); // Good practice to print the stack trace for debugging.
-        }
-
-        populateProducts();
+        // Database work runs on a small pool of worker threads that borrow pooled connections
+        connectionPool = new ConnectionPool(DB_URL, DB_USER, DB_PASSWORD, 2, 8);
+        dataAccess = new AsyncDataAccess(connectionPool, 4, 100);
+        orderPipeline = new OrderPipeline(connectionPool, productIds, ORDER_QUEUE_CAPACITY, ORDER_BATCH_SIZE, ORDER_LINGER_MILLIS);
 
         JPanel topPanel = createTopPanel();
         add(topPanel, BorderLayout.NORTH);
@@ -46,46 +152,358 @@ public class MarketplaceApp extends JFrame {
         mainPanel = new JPanel(cardLayout);
 
         mainPanel.add(homePage(), "Home");
-        mainPanel.add(cartPage(), "Cart");
 
         add(mainPanel, BorderLayout.CENTER);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                firstFrameNanos = System.nanoTime();
+            }
+
+            @Override
+            public void windowClosing(WindowEvent e) {
+                dispose(); // EXIT_ON_CLOSE exits without it; this flushes queued checkouts first
+            }
+        });
+        // Other ways out (Ctrl+C, System.exit) still give queued checkouts their chance to commit
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> orderPipeline.close(5000), "order-flush"));
+        // Nothing above touches the database: the pool opens its connections on its own thread
+        // and the catalog is read by a worker, so the frame is never held up by MySQL.
         setVisible(true);
+
+        // The other screens are not needed for the first frame; build them right after it
+        SwingUtilities.invokeLater(() -> {
+            mainPanel.add(sellPage(), "Sell");
+            mainPanel.add(cartPage(), "Cart");
+            mainPanel.add(diagnosticsPage(), "Diagnostics");
+        });
+        getRootPane().registerKeyboardAction(e -> cardLayout.show(mainPanel, "Diagnostics"),
+                KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK),
+                JComponent.WHEN_IN_FOCUSED_WINDOW);
+        populateProducts();
     }
 
     private void populateProducts() {
-        // Clear existing data
-        categoryProducts.clear();
+        // Boot from the local snapshot when there is one: mapping it costs the same however large
+        // the catalog is and needs no database, so its categories can be browsed straight away.
+        long openStart = System.nanoTime();
+        CatalogSnapshot snapshot = CatalogSnapshot.openLatest(SNAPSHOT_FILE);
+        SNAPSHOT_OPEN_LATENCY.recordSince(openStart);
+        if (snapshot != null) {
+            for (String category : snapshot.categoryNames()) {
+                CategoryPage page = pageFor(category);
+                page.base = snapshot.category(category);
+                page.lastId = snapshot.lastId(category);
+                JButton button = categoryButtons.get(category);
+                if (button != null) {
+                    button.setEnabled(true);
+                }
+            }
+            suggestions.addSnapshot(snapshot);
+            indexSnapshot(snapshot);
+        }
+        loadUnitsSold();
+        HashMap<String, Integer> after = new HashMap<>();
+        for (String category : CATALOG_CATEGORIES) {
+            after.put(category, pageFor(category).lastId);
+        }
+        boolean rebuildSnapshot = snapshot == null
+                || System.currentTimeMillis() - snapshot.writtenAt > SNAPSHOT_MAX_AGE_HOURS * 3600_000L;
+
+        runInBackground("Loading products...", "Error fetching products: ", connection -> {
+            // Only the first page of each category (or of what was added since the snapshot) is
+            // read up front; the rest arrives as the category tables are scrolled. Each page is
+            // handed to the EDT as soon as it is read, so its button comes alive without waiting.
+            for (String category : CATALOG_CATEGORIES) {
+                List<Product> firstPage = fetchCategoryPage(connection, category, after.get(category), CATEGORY_PAGE_SIZE);
+                SwingUtilities.invokeLater(() -> {
+                    addPage(pageFor(category), firstPage);
+                    categoryButtons.get(category).setEnabled(true);
+                });
+            }
+            return null;
+        }, done -> { }, () -> {
+            // The remaining categories load on first click. If the database was unreachable the
+            // buttons are enabled anyway, so a click retries instead of leaving the page dead.
+            for (JButton button : categoryButtons.values()) {
+                button.setEnabled(true);
+            }
+            reportStartupTiming();
+            if (rebuildSnapshot) {
+                saveCatalogSnapshot();
+            }
+        });
+    }
 
-        // Initialize categories (ensure these match your database)
-        categoryProducts.put("Electronics", new ArrayList<>());
-        categoryProducts.put("Clothing", new ArrayList<>());
-        categoryProducts.put("Home & Garden", new ArrayList<>());
-        categoryProducts.put("Sports", new ArrayList<>());
+    /**
+     * Writes a fresh catalog snapshot for the next start. It streams the whole products table,
+     * so it runs quietly on a worker without the progress bar; the running app does not use it.
+     */
+    private void saveCatalogSnapshot() {
+        dataAccess.submit(connection -> {
+            long start = System.nanoTime();
+            int count = 0;
+            java.io.File file = CatalogSnapshot.nextFile(SNAPSHOT_FILE);
+            try (CatalogSnapshot.Writer writer = new CatalogSnapshot.Writer(file);
+                 Statement statement = connection.createStatement()) {
+                statement.setFetchSize(1000);
+                try (ResultSet resultSet = statement.executeQuery("SELECT * FROM products ORDER BY category, id")) {
+                    while (resultSet.next()) {
+                        writer.add(readProduct(resultSet));
+                        count++;
+                    }
+                }
+                writer.commit();
+                SNAPSHOT_SAVE_LATENCY.recordSince(start);
+            } catch (java.io.IOException e) {
+                throw new SQLException("Cannot write catalog snapshot " + file + ": " + e.getMessage(), e);
+            }
+            System.out.printf("Catalog snapshot: %d products written in %.0f ms%n", count, (System.nanoTime() - start) / 1e6);
+            return count;
+        }).whenComplete((count, error) -> {
+            if (error != null) {
+                error.printStackTrace(); // next start simply loads from the database again
+            }
+        });
+    }
 
-        try {
-            if (connection != null) {
-                // Fetch products from the database
-                String query = "SELECT * FROM products";
-                Statement statement = connection.createStatement();
-                ResultSet resultSet = statement.executeQuery(query);
+    /**
+     * Builds the search index over the snapshot rows on a worker, from the same lists the
+     * category pages show, and swaps it in on the EDT together with the pages loaded meanwhile.
+     */
+    private void indexSnapshot(CatalogSnapshot snapshot) {
+        List<List<Product>> bases = new ArrayList<>();
+        for (String category : snapshot.categoryNames()) {
+            bases.add(pageFor(category).base);
+        }
+        dataAccess.submit(connection -> {
+            long start = System.nanoTime();
+            ProductSearchIndex built = new ProductSearchIndex();
+            for (List<Product> base : bases) {
+                for (Product product : base) {
+                    built.add(product);
+                    productIds.put(product.name, product.id);
+                }
+            }
+            System.out.printf("Search index: %d snapshot products indexed in %.0f ms%n", built.size(), (System.nanoTime() - start) / 1e6);
+            return built;
+        }).whenComplete((built, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                error.printStackTrace(); // searches then fall back to the database for those categories
+                return;
+            }
+            for (Product product : searchIndex.search("")) {
+                built.add(product);
+            }
+            searchIndex = built;
+            snapshotIndexed = true;
+        }));
+    }
+
+    /** Reads how many units of each product have sold, to rank search suggestions. Quiet like the snapshot save. */
+    private void loadUnitsSold() {
+        dataAccess.submit(connection -> {
+            HashMap<Integer, Integer> sold = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT product_id, SUM(quantity) FROM order_items GROUP BY product_id")) {
+                while (resultSet.next()) {
+                    sold.put(resultSet.getInt(1), resultSet.getInt(2));
+                }
+            }
+            return sold;
+        }).whenComplete((sold, error) -> {
+            if (error != null) {
+                error.printStackTrace(); // suggestions are then ranked alphabetically
+            } else {
+                suggestions.setUnitsSold(sold);
+            }
+        });
+    }
+
+    private void reportStartupTiming() {
+        long interactive = System.nanoTime();
+        int products = 0;
+        for (CategoryPage page : categoryPages.values()) {
+            products += page.rows.size();
+        }
+        System.out.printf("Startup: first frame %.0f ms, interactive %.0f ms (%d products in %d categories)%n",
+                firstFrameNanos == 0 ? Double.NaN : (firstFrameNanos - LAUNCH_NANOS) / 1e6,
+                (interactive - LAUNCH_NANOS) / 1e6, products, categoryPages.size());
+    }
+
+    /**
+     * Reads up to {@code limit} products of {@code category} with an id greater than
+     * {@code afterId}, in id order. Keyset pagination: the next page starts after the last id
+     * of this one, so each page is an index range scan however deep the user has scrolled.
+     */
+    private List<Product> fetchCategoryPage(Connection connection, String category, int afterId, int limit) throws SQLException {
+        long start = System.nanoTime();
+        List<Product> products = new ArrayList<>();
+        String query = "SELECT * FROM products WHERE category = ? AND id > ? ORDER BY id LIMIT ?";
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, category);
+            statement.setInt(2, afterId);
+            statement.setInt(3, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    products.add(readProduct(resultSet));
+                }
+            }
+        }
+        FETCH_PAGE_LATENCY.recordSince(start);
+        return products;
+    }
 
+    /**
+     * Database-side search for the rows that are not in the search index yet: every term must
+     * occur in the name or description. {@code indexedUpTo} maps each category already paged in
+     * to the last id indexed for it, or {@link Integer#MAX_VALUE} once it is complete; only rows
+     * past that, and categories not paged in at all, are scanned. Returns at most
+     * {@link #SEARCH_LIMIT} + 1 rows, the extra one telling the caller that the list was cut.
+     */
+    private List<Product> searchProducts(Connection connection, List<String> terms, Map<String, Integer> indexedUpTo) throws SQLException {
+        long start = System.nanoTime();
+        List<Product> products = new ArrayList<>();
+        StringBuilder query = new StringBuilder("SELECT * FROM products WHERE 1 = 1");
+        for (int i = 0; i < terms.size(); i++) {
+            query.append(" AND (LOWER(name) LIKE ? ESCAPE '!' OR LOWER(description) LIKE ? ESCAPE '!')");
+        }
+        List<Map.Entry<String, Integer>> partial = new ArrayList<>();
+        if (!indexedUpTo.isEmpty()) {
+            query.append(" AND (category IS NULL OR category NOT IN (");
+            for (int i = 0; i < indexedUpTo.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+            for (Map.Entry<String, Integer> e : indexedUpTo.entrySet()) {
+                if (e.getValue() != Integer.MAX_VALUE) {
+                    query.append(" OR (category = ? AND id > ?)");
+                    partial.add(e);
+                }
+            }
+            query.append(")");
+        }
+        query.append(" ORDER BY id LIMIT ?");
+        try (PreparedStatement statement = connection.prepareStatement(query.toString())) {
+            int index = 1;
+            for (String term : terms) {
+                String pattern = "%" + term.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+                statement.setString(index++, pattern);
+                statement.setString(index++, pattern);
+            }
+            for (String category : indexedUpTo.keySet()) {
+                statement.setString(index++, category);
+            }
+            for (Map.Entry<String, Integer> e : partial) {
+                statement.setString(index++, e.getKey());
+                statement.setInt(index++, e.getValue());
+            }
+            statement.setInt(index, SEARCH_LIMIT + 1);
+            try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
-                    String category = resultSet.getString("category");
-                    String name = resultSet.getString("name");
-                    String price = resultSet.getString("price");
-                    int productId = resultSet.getInt("id"); // Fetch the product ID
-                    // Fetch the is_auction column.  If it's 1, then isAuction is true.
-                    boolean isAuction = resultSet.getInt("is_auction") == 1;
-                    Product product = new Product(name, price, isAuction, productId); // Store the ID
-                    categoryProducts.get(category).add(product);
+                    products.add(readProduct(resultSet));
                 }
-                resultSet.close();
-                statement.close();
             }
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Error fetching products: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
         }
+        DB_SEARCH_LATENCY.recordSince(start);
+        return products;
+    }
+
+    private Product readProduct(ResultSet resultSet) throws SQLException {
+        String name = resultSet.getString("name");
+        int productId = resultSet.getInt("id"); // Fetch the product ID
+        Money price;
+        try {
+            price = Money.parse(resultSet.getString("price")); // parsed once, here at the boundary
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid price for product " + productId + ": " + e.getMessage(), e);
+        }
+        // Fetch the is_auction column.  If it's 1, then isAuction is true.
+        boolean isAuction = resultSet.getInt("is_auction") == 1;
+        Product product = new Product(name, price, isAuction, productId); // Store the ID
+        product.description = resultSet.getString("description");
+        product.category = resultSet.getString("category");
+        return product;
+    }
+
+    private CategoryPage pageFor(String category) {
+        return categoryPages.computeIfAbsent(category, k -> new CategoryPage());
+    }
+
+    /** Fetches the next page of {@code category} unless one is already on its way or the end was reached. */
+    private void loadNextPage(String category) {
+        CategoryPage page = pageFor(category);
+        if (page.loading || !page.more) {
+            return;
+        }
+        page.loading = true;
+        int afterId = page.lastId;
+        runInBackground("Loading " + category + "...", "Error fetching products: ",
+                connection -> fetchCategoryPage(connection, category, afterId, CATEGORY_PAGE_SIZE),
+                products -> addPage(page, products), () -> page.loading = false);
+    }
+
+    /** Appends a fetched page to the category, the search index and any open view of it. Runs on the EDT. */
+    private void addPage(CategoryPage page, List<Product> products) {
+        page.more = products.size() >= CATEGORY_PAGE_SIZE;
+        int first = page.rows.size();
+        String category = null;
+        for (Product product : products) {
+            if (product.id <= page.lastId) {
+                continue; // already delivered by an earlier page or the snapshot
+            }
+            page.products.add(product);
+            page.lastId = product.id;
+            searchIndex.add(product);
+            productIds.put(product.name, product.id);
+            category = product.category;
+        }
+        if (category == null) {
+            return;
+        }
+        suggestions.addProducts(products);
+        // Category views show page.rows itself, so they only need to hear about the new rows
+        for (ProductListView view : viewCache.values()) {
+            if (category.equals(view.category)) {
+                view.model.fireTableRowsInserted(first, page.rows.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code work} on a database worker thread and hands its result to {@code onSuccess}
+     * on the Event Dispatch Thread. The progress bar in the top panel stays visible while any
+     * task is in flight, and failures are reported with the usual error dialog.
+     */
+    private <T> void runInBackground(String status, String errorPrefix, SqlWork<T> work, Consumer<T> onSuccess) {
+        runInBackground(status, errorPrefix, work, onSuccess, () -> { });
+    }
+
+    /** Same as above, with {@code onDone} run on the EDT whether the task succeeded or failed. */
+    private <T> void runInBackground(String status, String errorPrefix, SqlWork<T> work, Consumer<T> onSuccess, Runnable onDone) {
+        runInBackground(status, errorPrefix, dataAccess.submit(work), onSuccess, onDone);
+    }
+
+    /** Same again for work that is already under way elsewhere, such as a queued checkout. */
+    private <T> void runInBackground(String status, String errorPrefix, CompletableFuture<T> work, Consumer<T> onSuccess, Runnable onDone) {
+        pendingTasks++;
+        statusLabel.setText(status);
+        progressBar.setVisible(true);
+        work.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            pendingTasks--;
+            if (pendingTasks == 0) {
+                statusLabel.setText(" ");
+                progressBar.setVisible(false);
+            }
+            onDone.run();
+            if (error != null) {
+                Throwable cause = error instanceof java.util.concurrent.CompletionException && error.getCause() != null ? error.getCause() : error;
+                JOptionPane.showMessageDialog(this, errorPrefix + cause.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+                cause.printStackTrace();
+            } else {
+                onSuccess.accept(result);
+            }
+        }));
     }
 
     private JPanel createTopPanel() {
@@ -124,8 +542,19 @@ public class MarketplaceApp extends JFrame {
             navPanel.add(navButton);
         }
 
+        statusLabel = new JLabel(" ");
+        statusLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(false);
+        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        statusPanel.setBackground(Color.WHITE);
+        statusPanel.add(progressBar);
+        statusPanel.add(statusLabel);
+
         topPanel.add(logoLabel, BorderLayout.WEST);
         topPanel.add(navPanel, BorderLayout.EAST);
+        topPanel.add(statusPanel, BorderLayout.SOUTH);
         return topPanel;
     }
 
@@ -143,40 +572,45 @@ public class MarketplaceApp extends JFrame {
         searchButton.setBackground(Color.LIGHT_GRAY);
         searchButton.addActionListener(e -> {
             String searchText = searchField.getText().toLowerCase();
-            //create a new JPanel to display search results
-            JPanel searchResultsPanel = new JPanel(new BorderLayout());
-            searchResultsPanel.setBackground(Color.WHITE);
-            JLabel titleLabel = new JLabel("Search Results for \"" + searchText + "\"", SwingConstants.CENTER);
-            titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
-            searchResultsPanel.add(titleLabel, BorderLayout.NORTH);
-
-            DefaultTableModel searchTableModel = new DefaultTableModel(new String[]{"Product", "Price", "Add to Cart"}, 0);
-            JTable searchTable = new JTable(searchTableModel);
-            searchTable.setRowHeight(40);
-            searchTable.setFont(new Font("Arial", Font.PLAIN, 18));
-            searchTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
-            searchTable.getColumn("Add to Cart").setCellRenderer(new ButtonRenderer());
-            searchTable.getColumn("Add to Cart").setCellEditor(new ButtonEditor());
-            JScrollPane searchScrollPane = new JScrollPane(searchTable);
-            searchResultsPanel.add(searchScrollPane, BorderLayout.CENTER);
-
-            //search the products
-            for (List<Product> productList : categoryProducts.values()) {
-                for (Product product : productList) {
-                    if (product.name.toLowerCase().contains(searchText)) {
-                        searchTableModel.addRow(new Object[]{product.name, product.price, "Add"});
-                    }
-                }
-            }
-            if (searchTableModel.getRowCount() == 0) {
-                JOptionPane.showMessageDialog(this, "No products found matching your search.", "No Results", JOptionPane.INFORMATION_MESSAGE);
-                return; // Exit the search
-            }
-            mainPanel.add(searchResultsPanel, "Search Results");
-            cardLayout.show(mainPanel, "Search Results");
 
+            // The index covers the snapshot and every page loaded so far; a bounded query looks
+            // only at the rows it does not cover yet
+            long searchStart = System.nanoTime();
+            List<Product> loaded = searchIndex.search(searchText);
+            INDEX_SEARCH_LATENCY.recordSince(searchStart);
+            List<String> terms = ProductSearchIndex.tokenize(searchText);
+            if (terms.isEmpty()) {
+                showSearchResults(searchText, loaded, false);
+                return;
+            }
+            HashMap<String, Integer> indexedUpTo = new HashMap<>();
+            for (Map.Entry<String, CategoryPage> entry : categoryPages.entrySet()) {
+                CategoryPage page = entry.getValue();
+                if (page.base.isEmpty() || snapshotIndexed) {
+                    indexedUpTo.put(entry.getKey(), page.more ? page.lastId : Integer.MAX_VALUE);
+                }
+            }
+            searchButton.setEnabled(false);
+            runInBackground("Searching...", "Error searching products: ",
+                    connection -> searchProducts(connection, terms, indexedUpTo), remote -> {
+                boolean cut = remote.size() > SEARCH_LIMIT;
+                List<Product> found = cut ? remote.subList(0, SEARCH_LIMIT) : remote;
+                // Prefer the already loaded instances so cart entries and table rows stay the same objects
+                TreeMap<Integer, Product> merged = new TreeMap<>();
+                for (Product p : found) {
+                    merged.put(p.id, p);
+                    productIds.put(p.name, p.id);
+                }
+                suggestions.addProducts(found);
+                for (Product p : loaded) {
+                    merged.put(p.id, p);
+                }
+                showSearchResults(searchText, new ArrayList<>(merged.values()), cut);
+            }, () -> searchButton.setEnabled(true));
         });
 
+        installSuggestions(searchField, searchButton);
+
         searchPanel.add(searchField);
         searchPanel.add(searchButton);
         panel.add(searchPanel, BorderLayout.NORTH);
@@ -212,15 +646,214 @@ public class MarketplaceApp extends JFrame {
             catButton.setFont(new Font("Arial", Font.PLAIN, 16));
             catButton.setCursor(new Cursor(Cursor.HAND_CURSOR));
             catButton.addActionListener(e -> showProductsForCategory(cat));
+            catButton.setEnabled(false); // enabled once the startup load has reached this category
+            categoryButtons.put(cat, catButton);
             categoryPanel.add(catButton);
         }
 
         panel.add(categoryPanel, BorderLayout.SOUTH);
-        //add the Sell Panel to the mainPanel
-        mainPanel.add(sellPage(), "Sell");
         return panel;
     }
 
+    /**
+     * Shows the best matching product names under {@code field} while the user types. A lookup
+     * starts once typing pauses for SUGGEST_DELAY_MILLIS and runs off the EDT; an answer that
+     * arrives after the text changed again is dropped. Up/Down move through the list, Enter or
+     * a click searches for the chosen name, Escape closes it.
+     */
+    private void installSuggestions(JTextField field, JButton searchButton) {
+        DefaultListModel<String> model = new DefaultListModel<>();
+        JList<String> list = new JList<>(model);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFont(field.getFont());
+        // A window that cannot take focus, so the caret stays in the field while it is open
+        JWindow popup = new JWindow(this);
+        popup.setFocusableWindowState(false);
+        popup.add(new JScrollPane(list));
+        int[] latest = {0}; // number of the newest lookup; answers to older ones are stale
+        boolean[] filling = {false}; // the field is being set from a suggestion, not typed into
+
+        Runnable hide = () -> {
+            latest[0]++;
+            popup.setVisible(false);
+        };
+        Runnable choose = () -> {
+            String chosen = list.getSelectedValue();
+            hide.run();
+            if (chosen != null) {
+                filling[0] = true;
+                field.setText(chosen);
+                filling[0] = false;
+                searchButton.doClick();
+            }
+        };
+        javax.swing.Timer debounce = new javax.swing.Timer(SUGGEST_DELAY_MILLIS, e -> {
+            String text = field.getText().trim();
+            int lookup = ++latest[0];
+            if (text.isEmpty()) {
+                popup.setVisible(false);
+                return;
+            }
+            suggestions.lookup(text, SUGGESTION_LIMIT).thenAccept(names -> SwingUtilities.invokeLater(() -> {
+                if (lookup != latest[0]) {
+                    return;
+                }
+                if (names.isEmpty() || !field.isShowing() || !field.hasFocus()) {
+                    popup.setVisible(false);
+                    return;
+                }
+                model.clear();
+                for (String name : names) {
+                    model.addElement(name);
+                }
+                list.setVisibleRowCount(names.size());
+                popup.pack();
+                popup.setSize(Math.max(field.getWidth(), popup.getWidth()), popup.getHeight());
+                Point below = field.getLocationOnScreen();
+                popup.setLocation(below.x, below.y + field.getHeight());
+                popup.setVisible(true);
+            }));
+        });
+        debounce.setRepeats(false);
+
+        field.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                // attribute changes only
+            }
+
+            private void changed() {
+                if (!filling[0]) {
+                    debounce.restart();
+                }
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                debounce.stop();
+                hide.run();
+            }
+        });
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentMoved(ComponentEvent e) {
+                hide.run(); // the popup is its own window and would not follow the frame
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = list.locationToIndex(e.getPoint());
+                if (row >= 0) {
+                    list.setSelectedIndex(row);
+                    choose.run();
+                }
+            }
+        });
+        field.addActionListener(e -> {
+            if (popup.isVisible() && !list.isSelectionEmpty()) {
+                choose.run();
+            } else {
+                hide.run();
+                searchButton.doClick();
+            }
+        });
+        InputMap keys = field.getInputMap(JComponent.WHEN_FOCUSED);
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "suggestion.next");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), "suggestion.previous");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "suggestion.close");
+        field.getActionMap().put("suggestion.next", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (popup.isVisible() && list.getSelectedIndex() < model.size() - 1) {
+                    list.setSelectedIndex(list.getSelectedIndex() + 1);
+                    list.ensureIndexIsVisible(list.getSelectedIndex());
+                }
+            }
+        });
+        field.getActionMap().put("suggestion.previous", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (popup.isVisible() && list.getSelectedIndex() > 0) {
+                    list.setSelectedIndex(list.getSelectedIndex() - 1);
+                    list.ensureIndexIsVisible(list.getSelectedIndex());
+                }
+            }
+        });
+        field.getActionMap().put("suggestion.close", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                debounce.stop();
+                hide.run();
+            }
+        });
+    }
+
+    /** Latency percentiles and counters from {@link #METRICS}, refreshed every second while on screen. */
+    private JPanel diagnosticsPage() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBackground(Color.WHITE);
+
+        JLabel title = new JLabel("Diagnostics", JLabel.CENTER);
+        title.setFont(new Font("Arial", Font.BOLD, 30));
+        title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
+        panel.add(title, BorderLayout.NORTH);
+
+        MetricsRegistry.TableModel model = new MetricsRegistry.TableModel(METRICS);
+        JTable table = new JTable(model);
+        table.setRowHeight(28);
+        table.setFont(new Font("Arial", Font.PLAIN, 16));
+        table.getTableHeader().setFont(new Font("Arial", Font.BOLD, 16));
+        table.getColumnModel().getColumn(0).setPreferredWidth(260);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JButton back = new JButton("Back");
+        back.setFont(new Font("Arial", Font.BOLD, 18));
+        back.setFocusPainted(false);
+        back.addActionListener(e -> cardLayout.show(mainPanel, "Home"));
+        JPanel bottom = new JPanel();
+        bottom.setBackground(Color.WHITE);
+        bottom.add(back);
+        panel.add(bottom, BorderLayout.SOUTH);
+
+        new javax.swing.Timer(1000, e -> {
+            if (panel.isShowing()) {
+                model.refresh();
+            }
+        }).start();
+        return panel;
+    }
+
+    /** {@code cut} says the database part stopped at {@link #SEARCH_LIMIT} rows; the title then says so. */
+    private void showSearchResults(String searchText, List<Product> results, boolean cut) {
+        if (results.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No products found matching your search.", "No Results", JOptionPane.INFORMATION_MESSAGE);
+            return; // Exit the search
+        }
+        // The results screen is built once and its rows are swapped on every search
+        if (searchView == null) {
+            searchView = new ProductListView("Search Results", null, true, 24);
+            mainPanel.add(searchView.panel, searchView.cardName);
+        }
+        String title = "Search Results for \"" + searchText + "\"";
+        if (cut) {
+            title += " (only the first " + SEARCH_LIMIT + " from categories not loaded yet)";
+        }
+        searchView.show(title, results);
+        cardLayout.show(mainPanel, searchView.cardName);
+    }
+
     private JPanel sellPage() {
         JPanel sellPanel = new JPanel(new BorderLayout());
         sellPanel.setBackground(Color.WHITE);
@@ -283,18 +916,19 @@ public class MarketplaceApp extends JFrame {
         sellButton.addActionListener(e -> {
             String name = nameField.getText();
             String category = (String) categoryComboBox.getSelectedItem();
-            String price = priceField.getText();
+            String priceText = priceField.getText();
             String description = descriptionArea.getText();
             boolean isAuction = isAuctionCheckBox.isSelected();
 
-            if (name.isEmpty() || price.isEmpty() || description.isEmpty()) {
+            if (name.isEmpty() || priceText.isEmpty() || description.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "Please fill in all fields.", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
 
+            Money price;
             try {
-                double priceValue = Double.parseDouble(price);
-                if (priceValue <= 0) {
+                price = Money.parse(priceText);
+                if (price.minor <= 0) {
                     JOptionPane.showMessageDialog(this, "Price must be greater than zero.", "Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
@@ -303,32 +937,66 @@ public class MarketplaceApp extends JFrame {
                 return;
             }
 
-            // Insert into database
-            try {
-                if (connection != null) {
-                    String insertQuery = "INSERT INTO products (name, category, price, description, is_auction) VALUES (?, ?, ?, ?, ?)";
-                    PreparedStatement preparedStatement = connection.prepareStatement(insertQuery);
+            // Insert into database on a worker thread; the button stays disabled until it finishes
+            sellButton.setEnabled(false);
+            runInBackground("Listing " + name + "...", "Error listing product: ", connection -> {
+                long start = System.nanoTime();
+                String insertQuery = "INSERT INTO products (name, category, price, description, is_auction) VALUES (?, ?, ?, ?, ?)";
+                int newId = 0;
+                try (PreparedStatement preparedStatement = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)) {
                     preparedStatement.setString(1, name);
                     preparedStatement.setString(2, category);
-                    preparedStatement.setString(3, price);
+                    preparedStatement.setString(3, price.toPlainString());
                     preparedStatement.setString(4, description);
                     preparedStatement.setInt(5, isAuction ? 1 : 0); // Store 1 for true, 0 for false.
                     preparedStatement.executeUpdate();
-                    preparedStatement.close();
-                    JOptionPane.showMessageDialog(this, "Product listed successfully!");
-
-                    // Clear the form
-                    nameField.setText("");
-                    priceField.setText("");
-                    descriptionArea.setText("");
-                    isAuctionCheckBox.setSelected(false);
-                    populateProducts(); // Refresh product lists
-                    cardLayout.show(mainPanel, "Home"); // Go back to home page
+                    try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                        if (generatedKeys.next()) {
+                            newId = generatedKeys.getInt(1);
+                        }
+                    }
                 }
-            } catch (SQLException ex) {
-                JOptionPane.showMessageDialog(this, "Error listing product: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
-                ex.printStackTrace();
-            }
+                if (newId <= 0) {
+                    // The driver returned no key: read the row back, so the product is never carted without an id
+                    try (PreparedStatement lookup = connection.prepareStatement(
+                            "SELECT id FROM products WHERE name = ? AND category = ? ORDER BY id DESC LIMIT 1")) {
+                        lookup.setString(1, name);
+                        lookup.setString(2, category);
+                        try (ResultSet resultSet = lookup.executeQuery()) {
+                            if (resultSet.next()) {
+                                newId = resultSet.getInt(1);
+                            }
+                        }
+                    }
+                    if (newId <= 0) {
+                        throw new SQLException("Product was saved but its id could not be read back");
+                    }
+                }
+                INSERT_LATENCY.recordSince(start);
+                Product listed = new Product(name, price, isAuction, newId);
+                listed.description = description;
+                listed.category = category;
+                return listed;
+            }, listed -> {
+                productIds.put(listed.name, listed.id);
+                suggestions.addProducts(Collections.singletonList(listed));
+                // The new row has the highest id, so a category that is still paging will reach it
+                // on its own. One that already hit its end would skip it, so append it directly.
+                CategoryPage page = pageFor(category);
+                if (!page.more && !page.loading) {
+                    List<Product> added = new ArrayList<>();
+                    added.add(listed);
+                    addPage(page, added);
+                }
+                JOptionPane.showMessageDialog(this, "Product listed successfully!");
+
+                // Clear the form
+                nameField.setText("");
+                priceField.setText("");
+                descriptionArea.setText("");
+                isAuctionCheckBox.setSelected(false);
+                cardLayout.show(mainPanel, "Home"); // Go back to home page
+            }, () -> sellButton.setEnabled(true));
         });
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         buttonPanel.setBackground(Color.WHITE);
@@ -339,71 +1007,151 @@ public class MarketplaceApp extends JFrame {
     }
 
     private void showProductsForCategory(String category) {
-        JPanel productPanel = new JPanel(new BorderLayout());
-        productPanel.setBackground(Color.WHITE);
+        boolean buyer = !userRole.equals("seller");
+        String key = category + "|" + (buyer ? "buyer" : "seller");
+        ProductListView view = viewCache.get(key);
+        if (view == null) {
+            view = new ProductListView("category:" + key, category, buyer, 30);
+            viewCache.put(key, view);
+            mainPanel.add(view.panel, view.cardName);
+        }
+        CategoryPage page = pageFor(category);
+        view.show("Products in " + category, page.rows);
+        cardLayout.show(mainPanel, view.cardName);
+        // A category that reached its end may have grown since, so the next scroll asks again;
+        // a keyset query past the last row is a cheap index probe
+        page.more = true;
+        if (page.rows.size() < CATEGORY_PAGE_SIZE) {
+            loadNextPage(category);
+        }
+    }
 
-        JLabel title = new JLabel("Products in " + category, JLabel.CENTER);
-        title.setFont(new Font("Arial", Font.BOLD, 30));
-        title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
-        productPanel.add(title, BorderLayout.NORTH);
+    /**
+     * A product list screen (title, table and, for buyers, a View Cart button) that is built once
+     * and re-pointed at a new list of products each time it is shown. The table reads straight
+     * from that list, so showing it costs one table refresh instead of a new panel.
+     */
+    class ProductListView {
+        final String cardName;
+        final String category; // category paged into this view, null for search results
+        final JPanel panel = new JPanel(new BorderLayout());
+        final JLabel title = new JLabel("", JLabel.CENTER);
+        final ProductRowsModel model;
+        final JTable table;
+
+        ProductListView(String cardName, String category, boolean buyer, int titleSize) {
+            this.cardName = cardName;
+            this.category = category;
+            panel.setBackground(Color.WHITE);
+
+            title.setFont(new Font("Arial", Font.BOLD, titleSize));
+            title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
+            panel.add(title, BorderLayout.NORTH);
+
+            String[] columns = buyer ? new String[]{"Product", "Price", "Add to Cart"} : new String[]{"Product", "Price"};
+            model = new ProductRowsModel(columns);
+            table = new JTable(model);
+            table.setRowHeight(40);
+            table.setFont(new Font("Arial", Font.PLAIN, 18));
+            table.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
+            if (buyer) {
+                table.getColumn("Add to Cart").setCellRenderer(actionRenderer);
+                table.getColumn("Add to Cart").setCellEditor(new ButtonEditor(row -> addToCart(model.getProduct(row))));
+            }
 
-        List<Product> products = categoryProducts.getOrDefault(category, new ArrayList<>());
+            JScrollPane scrollPane = new JScrollPane(table);
+            panel.add(scrollPane, BorderLayout.CENTER);
+            if (category != null) {
+                // Ask for the next page once the user scrolls within a few rows of the bottom
+                scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+                    JScrollBar bar = (JScrollBar) e.getAdjustable();
+                    if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 5 * table.getRowHeight()) {
+                        loadNextPage(category);
+                    }
+                });
+            }
 
-        String[] columns = {"Product", "Price", "Add to Cart"};
-        if (userRole.equals("buyer")) {
-            columns = new String[]{"Product", "Price", "Add to Cart"};
-        } else if (userRole.equals("seller")) {
-            columns = new String[]{"Product", "Price"};
-        }
+            if (buyer) {
+                JButton viewCart = new JButton("View Cart");
+                viewCart.setFont(new Font("Arial", Font.BOLD, 20));
+                viewCart.setBackground(new Color(52, 152, 219));
+                viewCart.setForeground(Color.white);
+                viewCart.setFocusPainted(false);
+                viewCart.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
 
-        DefaultTableModel model = new DefaultTableModel(columns, 0);
+                viewCart.addActionListener(e -> cardLayout.show(mainPanel, "Cart"));
 
-        for (Product p : products) {
-            if (userRole.equals("buyer")) {
-                model.addRow(new Object[]{p.name, p.price, "Add"});
-            } else if (userRole.equals("seller")) {
-                model.addRow(new Object[]{p.name, p.price});
+                JPanel bottom = new JPanel();
+                bottom.setBackground(Color.WHITE);
+                bottom.add(viewCart);
+                panel.add(bottom, BorderLayout.SOUTH);
             }
         }
 
-        JTable table = new JTable(model);
-        table.setRowHeight(40);
-        table.setFont(new Font("Arial", Font.PLAIN, 18));
-        table.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
-        if (userRole.equals("buyer")) {
-            table.getColumn("Add to Cart").setCellRenderer(new ButtonRenderer());
-            table.getColumn("Add to Cart").setCellEditor(new ButtonEditor());
-        }
-
-        JScrollPane scrollPane = new JScrollPane(table);
-        productPanel.add(scrollPane, BorderLayout.CENTER);
-
-        if (userRole.equals("buyer")) {
-            JButton viewCart = new JButton("View Cart");
-            viewCart.setFont(new Font("Arial", Font.BOLD, 20));
-            viewCart.setBackground(new Color(52, 152, 219));
-            viewCart.setForeground(Color.white);
-            viewCart.setFocusPainted(false);
-            viewCart.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
-
-            viewCart.addActionListener(e -> {
-                refreshCartPage();
-                cardLayout.show(mainPanel, "Cart");
-            });
+        void show(String titleText, List<Product> products) {
+            if (table.isEditing()) {
+                table.getCellEditor().cancelCellEditing();
+            }
+            title.setText(titleText);
+            model.setRows(products);
+        }
+    }
+
+    /**
+     * Table model over a list of products, read in place rather than copied, so a category
+     * backed by a large snapshot costs nothing to show. Only the action column (if any) is editable.
+     */
+    static class ProductRowsModel extends AbstractTableModel {
+        private final String[] columns;
+        private List<Product> rows = Collections.emptyList();
+
+        ProductRowsModel(String[] columns) {
+            this.columns = columns;
+        }
+
+        void setRows(List<Product> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        Product getProduct(int row) {
+            return rows.get(row);
+        }
 
-            JPanel bottom = new JPanel();
-            bottom.setBackground(Color.WHITE);
-            bottom.add(viewCart);
-            productPanel.add(bottom, BorderLayout.SOUTH);
+        @Override
+        public int getRowCount() {
+            return rows.size();
         }
 
-        mainPanel.add(productPanel, category);
-        cardLayout.show(mainPanel, category);
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Product p = rows.get(row);
+            switch (column) {
+                case 0: return p.name;
+                case 1: return p.price;
+                default: return "Add";
+            }
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return column == 2;
+        }
     }
 
     private JPanel cartPanel;
     private JTable cartTable;
-    private DefaultTableModel cartModel;
+    private CartTableModel cartModel; // follows the cart row by row through its listener
 
     private JPanel cartPage() {
         cartPanel = new JPanel(new BorderLayout());
@@ -414,12 +1162,13 @@ public class MarketplaceApp extends JFrame {
         title.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
         cartPanel.add(title, BorderLayout.NORTH);
 
-        String[] columns = {"Product", "Price"};
-        cartModel = new DefaultTableModel(columns, 0);
+        cartModel = new CartTableModel(cart);
         cartTable = new JTable(cartModel);
         cartTable.setRowHeight(40);
         cartTable.setFont(new Font("Arial", Font.PLAIN, 18));
         cartTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 18));
+        cartTable.getColumn("Remove").setCellRenderer(actionRenderer);
+        cartTable.getColumn("Remove").setCellEditor(new ButtonEditor(row -> cart.remove(cart.lineAt(row).product.id, 1)));
 
         JScrollPane scrollPane = new JScrollPane(cartTable);
         cartPanel.add(scrollPane, BorderLayout.CENTER);
@@ -427,6 +1176,12 @@ public class MarketplaceApp extends JFrame {
         JPanel bottom = new JPanel();
         bottom.setBackground(Color.WHITE);
 
+        JLabel subtotalLabel = new JLabel();
+        subtotalLabel.setFont(new Font("Arial", Font.BOLD, 18));
+        subtotalLabel.setText("Subtotal: " + cart.getSubtotal());
+        cart.addListener((change, index) -> subtotalLabel.setText("Subtotal: " + cart.getSubtotal()));
+        bottom.add(subtotalLabel);
+
         JButton back = new JButton("Back to Shopping");
         back.setFont(new Font("Arial", Font.BOLD, 18));
         back.setBackground(new Color(52, 152, 219));
@@ -447,64 +1202,17 @@ public class MarketplaceApp extends JFrame {
                 return;
             }
             // Implement the checkout process (e.g., create an order in the database)
-            try {
-                if (connection != null) {
-                    // Start a transaction (optional, but good for data integrity)
-                    connection.setAutoCommit(false);
-
-                    // 1. Create an order
-                    String insertOrderQuery = "INSERT INTO orders (order_date, total_amount) VALUES (NOW(), ?)";
-                    PreparedStatement orderStatement = connection.prepareStatement(insertOrderQuery, Statement.RETURN_GENERATED_KEYS);
-                    double totalAmount = 0;
-                    for (Product p : cart) {
-                        totalAmount += Double.parseDouble(p.price.substring(1)); // Remove "₹" and parse
-                    }
-                    orderStatement.setDouble(1, totalAmount);
-                    orderStatement.executeUpdate();
-
-                    // Get the generated order ID
-                    ResultSet generatedKeys = orderStatement.getGeneratedKeys();
-                    int orderId = 0;
-                    if (generatedKeys.next()) {
-                        orderId = generatedKeys.getInt(1);
-                    } else {
-                        throw new SQLException("Failed to retrieve order ID.");
-                    }
-                    generatedKeys.close();
-                    orderStatement.close();
-
-                    // 2. Insert order items
-                    String insertOrderItemQuery = "INSERT INTO order_items (order_id, product_id, quantity, price) VALUES (?, ?, ?, ?)";
-                    PreparedStatement orderItemStatement = connection.prepareStatement(insertOrderItemQuery);
-                    for (Product p : cart) {
-                        // Get the product ID from the database, assuming you have the product name
-                        int productId = getProductIdByName(p.name);
-                        orderItemStatement.setInt(1, orderId);
-                        orderItemStatement.setInt(2, productId);
-                        orderItemStatement.setInt(3, 1); // Quantity is 1 for each item in this example
-                        orderItemStatement.setDouble(4, Double.parseDouble(p.price.substring(1))); // Remove "₹"
-                        orderItemStatement.executeUpdate();
-                    }
-                    orderItemStatement.close();
-
-                    // Commit the transaction
-                    connection.commit();
-                    connection.setAutoCommit(true); //reset
-                    JOptionPane.showMessageDialog(this, "Order Placed Successfully! Thank you for shopping.");
-                    cart.clear();
-                    refreshCartPage();
-                    cardLayout.show(mainPanel, "Home");
-                }
-            } catch (SQLException ex) {
-                try {
-                    connection.rollback();
-                    connection.setAutoCommit(true);
-                } catch (SQLException rollbackEx) {
-                    rollbackEx.printStackTrace();
+            List<CartService.Line> items = cart.snapshot();
+            checkout.setEnabled(false);
+            runInBackground("Placing your order...", "Error placing order: ",
+                    orderPipeline.submit(items), orderId -> {
+                suggestions.recordPurchase(items);
+                JOptionPane.showMessageDialog(this, "Order Placed Successfully! Thank you for shopping.");
+                for (CartService.Line line : items) {
+                    cart.remove(line.product.id, line.quantity); // keep anything added while the order was being written
                 }
-                JOptionPane.showMessageDialog(this, "Error placing order: " + ex.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
-                ex.printStackTrace();
-            }
+                cardLayout.show(mainPanel, "Home");
+            }, () -> checkout.setEnabled(true));
         });
 
         bottom.add(back);
@@ -515,95 +1223,2748 @@ public class MarketplaceApp extends JFrame {
         return cartPanel;
     }
 
-    private int getProductIdByName(String productName) throws SQLException {
-        String query = "SELECT id FROM products WHERE name = ?";
-        PreparedStatement preparedStatement = connection.prepareStatement(query);
-        preparedStatement.setString(1, productName);
-        ResultSet resultSet = preparedStatement.executeQuery();
-        if (resultSet.next()) {
-            int id = resultSet.getInt("id");
-            resultSet.close();
-            preparedStatement.close();
-            return id;
-        } else {
-            resultSet.close();
-            preparedStatement.close();
-            throw new SQLException("Product not found: " + productName);
+    /**
+     * Places the order, retrying with backoff when the database aborts the transaction over a
+     * conflict with another checkout (a deadlock, lock wait timeout or serialization failure).
+     * Running out of stock is not retried. Returns the generated order id.
+     */
+    static int placeOrderBatched(Connection connection, List<CartService.Line> items, ProductIdCache productIds) throws SQLException {
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int orderId = placeOrderOnce(connection, items, productIds);
+                CHECKOUT_LATENCY.recordSince(start);
+                return orderId;
+            } catch (SQLException e) {
+                if (!isConflict(e) || attempt >= CHECKOUT_ATTEMPTS) {
+                    CHECKOUT_FAILURES.increment();
+                    throw e;
+                }
+                CHECKOUT_RETRIES.increment();
+                // Exponential backoff with jitter, so checkouts that collided do not collide again
+                long backoff = CHECKOUT_BACKOFF_MILLIS << (attempt - 1);
+                try {
+                    Thread.sleep(backoff / 2 + java.util.concurrent.ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
         }
     }
 
-    private void refreshCartPage() {
-        cartModel.setRowCount(0);
-        for (Product p : cart) {
-            cartModel.addRow(new Object[]{p.name, p.price});
+    private static boolean isConflict(SQLException e) {
+        for (SQLException x = e; x != null; x = x.getNextException()) {
+            String state = x.getSQLState();
+            if (x instanceof java.sql.SQLTransactionRollbackException || "40001".equals(state) || "40P01".equals(state)
+                    || x.getErrorCode() == 1213 || x.getErrorCode() == 1205) { // MySQL deadlock, lock wait timeout
+                return true;
+            }
         }
+        return false;
     }
 
-    class Product {
-        String name, price;
-        boolean isAuction;
-        int id; // Add product ID
+    /**
+     * Writes one order and all of its lines in a single transaction, after reserving the stock.
+     * The stock updates and the order_items rows each go through one JDBC batch, so a cart
+     * costs the same number of round trips whether it holds one item or a few hundred.
+     * Lines whose product has no id are resolved by name through {@code productIds},
+     * with at most one extra query for all of them. Prices are read from the products table,
+     * not taken from the cart, which may hold them from an old catalog snapshot.
+     */
+    private static int placeOrderOnce(Connection connection, List<CartService.Line> items, ProductIdCache productIds) throws SQLException {
+        int roundTrips = 0;
+
+        connection.setAutoCommit(false);
+        try {
+            // 1. Ids for any rows that never had one (a listing whose key the driver did not return)
+            Map<String, Integer> resolved = new HashMap<>();
+            roundTrips += resolveMissingIds(connection, items, productIds, resolved);
+
+            // 2. Current prices, failing if a product has been taken off the catalog
+            Map<Integer, Money> prices = new HashMap<>();
+            roundTrips += readPrices(connection, items, resolved, prices);
+            checkAvailable(items, resolved, prices);
+
+            // 3. Take the stock, or fail with nothing written
+            roundTrips += reserveStock(connection, items, resolved);
+
+            // 4. Create the order
+            int orderId;
+            try (PreparedStatement orderStatement = connection.prepareStatement(INSERT_ORDER, Statement.RETURN_GENERATED_KEYS)) {
+                orderStatement.setBigDecimal(1, orderTotal(items, resolved, prices).toBigDecimal());
+                orderStatement.executeUpdate();
+                roundTrips++;
+                try (ResultSet generatedKeys = orderStatement.getGeneratedKeys()) {
+                    if (!generatedKeys.next()) {
+                        throw new SQLException("Failed to retrieve order ID.");
+                    }
+                    orderId = generatedKeys.getInt(1);
+                }
+            }
 
-        Product(String name, String price, boolean isAuction, int id) {
-            this.name = name;
-            this.price = price;
-            this.isAuction = isAuction;
-            this.id = id;
-        }
-        Product(String name, String price) {
-            this.name = name;
-            this.price = price;
+            // 5. Insert every order line in one batch, using the ids loaded by populateProducts()
+            try (PreparedStatement orderItemStatement = connection.prepareStatement(INSERT_ORDER_ITEM)) {
+                addOrderItems(orderItemStatement, orderId, items, resolved, prices);
+                orderItemStatement.executeBatch();
+                roundTrips++;
+            }
+
+            connection.commit();
+            roundTrips++;
+            CHECKOUT_ROUND_TRIPS.add(roundTrips);
+            return orderId;
+        } catch (SQLException ex) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackEx) {
+                rollbackEx.printStackTrace();
+            }
+            throw ex;
+        } finally {
+            connection.setAutoCommit(true); //reset
         }
     }
 
-    class ButtonRenderer extends JButton implements javax.swing.table.TableCellRenderer {
-        public ButtonRenderer() {
-            setOpaque(true);
-        }
+    static final String INSERT_ORDER = "INSERT INTO orders (order_date, total_amount) VALUES (NOW(), ?)";
+    static final String INSERT_ORDER_ITEM = "INSERT INTO order_items (order_id, product_id, quantity, price) VALUES (?, ?, ?, ?)";
 
-        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
-            setText((value == null) ? "Add" : value.toString());
-            setBackground(new Color(46, 204, 113));
-            setForeground(Color.white);
-            setFont(new Font("Arial", Font.BOLD, 16));
-            return this;
+    private static Money orderTotal(List<CartService.Line> items, Map<String, Integer> resolved, Map<Integer, Money> prices) {
+        Money total = null;
+        for (CartService.Line line : items) {
+            Money subtotal = prices.get(productIdOf(line, resolved)).times(line.quantity);
+            total = total == null ? subtotal : total.plus(subtotal);
         }
+        return total == null ? Money.zero(Money.DEFAULT_CURRENCY) : total;
     }
 
-    class ButtonEditor extends DefaultCellEditor {
-        protected JButton button;
-        private String label;
-        private boolean clicked;
-        private int row;
+    private static int productIdOf(CartService.Line line, Map<String, Integer> resolved) {
+        return line.product.id > 0 ? line.product.id : resolved.get(line.product.name);
+    }
 
-        public ButtonEditor() {
-            super(new JCheckBox());
-            button = new JButton();
-            button.setOpaque(true);
-            button.addActionListener(e -> fireEditingStopped());
+    /** Puts ids for the lines whose product has none into {@code resolved}; returns the queries run. */
+    private static int resolveMissingIds(Connection connection, List<CartService.Line> items, ProductIdCache productIds,
+                                         Map<String, Integer> resolved) throws SQLException {
+        List<String> unnamed = new ArrayList<>();
+        for (CartService.Line line : items) {
+            if (line.product.id <= 0) {
+                unnamed.add(line.product.name);
+            }
         }
+        return unnamed.isEmpty() ? 0 : productIds.resolve(connection, unnamed, resolved);
+    }
 
-        public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row, int column) {
-            label = (value == null) ? "Add" : value.toString();
-            button.setText(label);
-            button.setBackground(new Color(46, 204, 113));
-            button.setForeground(Color.white);
-            button.setFont(new Font("Arial", Font.BOLD, 16));
-            clicked = true;
-            this.row = row;
-            return button;
+    /**
+     * Puts the current price of every line's product that {@code prices} does not hold yet into
+     * it, with one IN query per hundred products; returns the queries run. A product that is no
+     * longer in the table is left out, for {@link #checkAvailable} to report.
+     */
+    private static int readPrices(Connection connection, List<CartService.Line> items, Map<String, Integer> resolved,
+                                  Map<Integer, Money> prices) throws SQLException {
+        List<Integer> missing = new ArrayList<>();
+        HashSet<Integer> seen = new HashSet<>();
+        for (CartService.Line line : items) {
+            int productId = productIdOf(line, resolved);
+            if (!prices.containsKey(productId) && seen.add(productId)) {
+                missing.add(productId);
+            }
         }
-
-        public Object getCellEditorValue() {
-            if (clicked) {
-                JTable table = (JTable) button.getParent();
-                while (!(table instanceof JTable)) {
+        int queries = 0;
+        int[] sizes = ProductIdCache.IN_LIST_SIZES; // padded the same way, so the pool caches few statements
+        int maxSize = sizes[sizes.length - 1];
+        for (int from = 0; from < missing.size(); from += maxSize) {
+            List<Integer> chunk = missing.subList(from, Math.min(missing.size(), from + maxSize));
+            int size = maxSize;
+            for (int candidate : sizes) {
+                if (candidate >= chunk.size()) {
+                    size = candidate;
+                    break;
+                }
+            }
+            StringBuilder query = new StringBuilder("SELECT id, price FROM products WHERE id IN (?");
+            for (int i = 1; i < size; i++) {
+                query.append(", ?");
+            }
+            query.append(")");
+            try (PreparedStatement statement = connection.prepareStatement(query.toString())) {
+                for (int i = 0; i < size; i++) {
+                    statement.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1))); // pad with the last id
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        prices.put(resultSet.getInt("id"), Money.parse(resultSet.getString("price")));
+                    }
+                }
+            }
+            queries++;
+        }
+        return queries;
+    }
+
+    /** Throws ProductUnavailableException if a line's product has no price, i.e. is gone from the table. */
+    private static void checkAvailable(List<CartService.Line> items, Map<String, Integer> resolved,
+                                       Map<Integer, Money> prices) throws ProductUnavailableException {
+        List<String> gone = new ArrayList<>();
+        for (CartService.Line line : items) {
+            if (!prices.containsKey(productIdOf(line, resolved))) {
+                gone.add(line.product.name);
+            }
+        }
+        if (!gone.isEmpty()) {
+            throw new ProductUnavailableException(gone);
+        }
+    }
+
+    /**
+     * Takes the stock for one order with one conditional UPDATE per product, sent as one batch.
+     * A row only changes while enough is left, so an update count of 0 means sold out, and only
+     * the rows being bought are locked. Ids go in ascending order, so two checkouts lock shared
+     * rows in the same order and cannot deadlock on each other. Throws OutOfStockException
+     * (the caller rolls back what was taken); returns the round trips made.
+     */
+    private static int reserveStock(Connection connection, List<CartService.Line> items, Map<String, Integer> resolved) throws SQLException {
+        if (!isStockTracked(connection)) {
+            return 0;
+        }
+        TreeMap<Integer, Integer> quantities = new TreeMap<>();
+        HashMap<Integer, String> names = new HashMap<>();
+        for (CartService.Line line : items) {
+            int productId = productIdOf(line, resolved);
+            quantities.merge(productId, line.quantity, Integer::sum);
+            names.put(productId, line.product.name);
+        }
+        String reserveQuery = "UPDATE products SET stock = stock - ? WHERE id = ? AND stock >= ?";
+        try (PreparedStatement reserveStatement = connection.prepareStatement(reserveQuery)) {
+            for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+                reserveStatement.setInt(1, line.getValue());
+                reserveStatement.setInt(2, line.getKey());
+                reserveStatement.setInt(3, line.getValue());
+                reserveStatement.addBatch();
+            }
+            int[] updated = reserveStatement.executeBatch();
+            List<String> soldOut = new ArrayList<>();
+            int i = 0;
+            for (int productId : quantities.keySet()) {
+                if (updated[i++] == 0) {
+                    soldOut.add(names.get(productId));
+                }
+            }
+            if (!soldOut.isEmpty()) {
+                CHECKOUT_OUT_OF_STOCK.increment();
+                throw new OutOfStockException(soldOut);
+            }
+        }
+        return 1;
+    }
+
+    private static void addOrderItems(PreparedStatement orderItemStatement, int orderId, List<CartService.Line> items,
+                                      Map<String, Integer> resolved, Map<Integer, Money> prices) throws SQLException {
+        for (CartService.Line line : items) {
+            int productId = productIdOf(line, resolved);
+            orderItemStatement.setInt(1, orderId);
+            orderItemStatement.setInt(2, productId);
+            orderItemStatement.setInt(3, line.quantity);
+            orderItemStatement.setBigDecimal(4, prices.get(productId).toBigDecimal()); // unit price
+            orderItemStatement.addBatch();
+        }
+    }
+
+    // Whether products has a stock column. Schemas from before stock tracking have none, and then
+    // checkout reserves nothing. Looked up on the first checkout.
+    private static volatile Boolean stockTracked;
+
+    private static boolean isStockTracked(Connection connection) throws SQLException {
+        Boolean tracked = stockTracked;
+        if (tracked == null) {
+            java.sql.DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet lower = metaData.getColumns(null, null, "products", "stock");
+                 ResultSet upper = metaData.getColumns(null, null, "PRODUCTS", "STOCK")) { // databases that fold names to upper case
+                tracked = lower.next() || upper.next();
+            }
+            stockTracked = tracked;
+        }
+        return tracked;
+    }
+
+    /** Checkout found less stock left than the cart asks for. Nothing was reserved or written. */
+    static class OutOfStockException extends SQLException {
+        OutOfStockException(List<String> products) {
+            super("Not enough stock left for " + String.join(", ", products));
+        }
+    }
+
+    /** The cart holds products that have been removed since it was filled. Nothing was written. */
+    static class ProductUnavailableException extends SQLException {
+        ProductUnavailableException(List<String> products) {
+            super("No longer for sale: " + String.join(", ", products));
+        }
+    }
+
+    private void addToCart(Product product) {
+        try {
+            cart.add(product, 1);
+        } catch (IllegalArgumentException e) { // not saved yet, or priced in another currency than the rest of the cart
+            String message = product.id <= 0 ? product.name + " is still being saved; please try again in a moment."
+                    : "Your cart can only hold items priced in one currency.";
+            JOptionPane.showMessageDialog(this, message, "Cart", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        JOptionPane.showMessageDialog(this, product.name + " added to cart!");
+    }
+
+    /**
+     * The shopping cart: one line per product id with its quantity, and a subtotal that is
+     * adjusted on every change instead of being summed again. Listeners are told which row
+     * changed, so the cart table repaints that row only. Lines stay in the order they were first
+     * added; removing one moves the last line into its place so no other row shifts.
+     * Only used on the Event Dispatch Thread.
+     */
+    static class CartService {
+        enum Change { INSERTED, UPDATED, REMOVED }
+
+        interface Listener {
+            void cartChanged(Change change, int row);
+        }
+
+        /** One product in the cart. Snapshots handed out by {@link #snapshot()} never change. */
+        static final class Line {
+            final Product product;
+            int quantity;
+            Money subtotal; // price times quantity, kept up to date
+            int row;
+
+            Line(Product product, int quantity) {
+                this.product = product;
+                this.quantity = quantity;
+                this.subtotal = product.price.times(quantity);
+            }
+        }
+
+        private final HashMap<Integer, Line> byProductId = new HashMap<>();
+        private final ArrayList<Line> lines = new ArrayList<>();
+        private final List<Listener> listeners = new ArrayList<>();
+        private Money subtotal = Money.zero(Money.DEFAULT_CURRENCY);
+        private int itemCount = 0;
+
+        void addListener(Listener listener) {
+            listeners.add(listener);
+        }
+
+        /**
+         * Adds {@code quantity} of the product. Throws IllegalArgumentException for a second
+         * currency, or for a product without a database id yet: lines are keyed by id, and two
+         * unsaved products would otherwise share one line.
+         */
+        void add(Product product, int quantity) {
+            if (product.id <= 0) {
+                throw new IllegalArgumentException("Product " + product.name + " has no id yet");
+            }
+            Money added = product.price.times(quantity);
+            Money newSubtotal = lines.isEmpty() ? added : subtotal.plus(added); // checks the currency first
+            Line line = byProductId.get(product.id);
+            boolean inserted = line == null;
+            if (inserted) {
+                line = new Line(product, quantity);
+                line.row = lines.size();
+                lines.add(line);
+                byProductId.put(product.id, line);
+            } else {
+                line.quantity += quantity;
+                line.subtotal = line.subtotal.plus(added);
+            }
+            subtotal = newSubtotal;
+            itemCount += quantity;
+            fire(inserted ? Change.INSERTED : Change.UPDATED, line.row);
+        }
+
+        /** Takes up to {@code quantity} of the product out of the cart, dropping the line at zero. */
+        void remove(int productId, int quantity) {
+            Line line = byProductId.get(productId);
+            if (line == null) {
+                return;
+            }
+            int taken = Math.min(quantity, line.quantity);
+            Money removed = line.product.price.times(taken);
+            line.quantity -= taken;
+            line.subtotal = line.subtotal.plus(removed.times(-1));
+            subtotal = subtotal.plus(removed.times(-1));
+            itemCount -= taken;
+            if (line.quantity > 0) {
+                fire(Change.UPDATED, line.row);
+                return;
+            }
+            byProductId.remove(productId);
+            int last = lines.size() - 1;
+            Line moved = lines.remove(last);
+            if (moved != line) {
+                moved.row = line.row;
+                lines.set(line.row, moved);
+            }
+            fire(Change.REMOVED, last);
+            if (moved != line) {
+                fire(Change.UPDATED, moved.row);
+            }
+        }
+
+        Line lineAt(int row) {
+            return lines.get(row);
+        }
+
+        int size() {
+            return lines.size();
+        }
+
+        boolean isEmpty() {
+            return lines.isEmpty();
+        }
+
+        int getItemCount() {
+            return itemCount;
+        }
+
+        Money getSubtotal() {
+            return subtotal;
+        }
+
+        /** Copies of the current lines, safe to hand to a worker thread. */
+        List<Line> snapshot() {
+            List<Line> copy = new ArrayList<>(lines.size());
+            for (Line line : lines) {
+                copy.add(new Line(line.product, line.quantity));
+            }
+            return copy;
+        }
+
+        private void fire(Change change, int row) {
+            for (Listener listener : listeners) {
+                listener.cartChanged(change, row);
+            }
+        }
+    }
+
+    /** The cart table, reading straight from the cart and updated one row per change. */
+    static class CartTableModel extends AbstractTableModel implements CartService.Listener {
+        private static final String[] COLUMNS = {"Product", "Qty", "Price", "Remove"};
+        private final CartService cart;
+
+        CartTableModel(CartService cart) {
+            this.cart = cart;
+            cart.addListener(this);
+        }
+
+        @Override
+        public void cartChanged(CartService.Change change, int row) {
+            switch (change) {
+                case INSERTED: fireTableRowsInserted(row, row); break;
+                case UPDATED: fireTableRowsUpdated(row, row); break;
+                default: fireTableRowsDeleted(row, row); break;
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return cart.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            CartService.Line line = cart.lineAt(row);
+            switch (column) {
+                case 0: return line.product.name;
+                case 1: return line.quantity;
+                case 2: return line.subtotal;
+                default: return "Remove";
+            }
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return column == 3;
+        }
+    }
+
+    static class Product {
+        String name;
+        Money price;
+        String description;
+        String category;
+        boolean isAuction;
+        int id; // Add product ID
+
+        Product(String name, Money price, boolean isAuction, int id) {
+            this.name = name;
+            this.price = price;
+            this.isAuction = isAuction;
+            this.id = id;
+        }
+        Product(String name, Money price) {
+            this.name = name;
+            this.price = price;
+        }
+    }
+
+    /**
+     * An amount of money held as a whole number of minor units (paise, cents) plus an ISO currency code.
+     * Prices are parsed from text once, when they come out of the database or the sell form, and are
+     * added and compared as longs from then on. Instances are immutable, and the display string is
+     * built once and reused, so table cells can call toString() as often as they repaint.
+     */
+    static final class Money implements Comparable<Money> {
+        static final String DEFAULT_CURRENCY = "INR";
+        private static final int SCALE = 2;
+        // Plain decimals only: no exponent, and few enough digits that BigDecimal stays cheap and the
+        // minor units fit in a long
+        private static final Pattern AMOUNT = Pattern.compile("[-+]?(\\d{1,15}(\\.\\d{0,15})?|\\.\\d{1,15})");
+
+        final long minor;
+        final String currency;
+        private String display; // lazily built "₹1,299.00"
+
+        private Money(long minor, String currency) {
+            this.minor = minor;
+            this.currency = currency;
+        }
+
+        static Money ofMinor(long minor, String currency) {
+            return new Money(minor, currency);
+        }
+
+        static Money zero(String currency) {
+            return new Money(0, currency);
+        }
+
+        /**
+         * Parses "₹1,299.50", "Rs 1299.5", "$12", "INR 12.00" or a bare "1299.50".
+         * A missing currency symbol means rupees. Throws NumberFormatException for anything else.
+         */
+        static Money parse(String text) {
+            if (text == null) {
+                throw new NumberFormatException("No price");
+            }
+            String s = text.trim();
+            String currency = DEFAULT_CURRENCY;
+            if (s.startsWith("₹")) {
+                s = s.substring(1);
+            } else if (s.startsWith("$")) {
+                currency = "USD";
+                s = s.substring(1);
+            } else if (s.regionMatches(true, 0, "Rs.", 0, 3)) {
+                s = s.substring(3);
+            } else if (s.regionMatches(true, 0, "Rs", 0, 2)) {
+                s = s.substring(2);
+            } else if (s.length() > 3 && Character.isLetter(s.charAt(0))) {
+                currency = s.substring(0, 3).toUpperCase(Locale.ROOT);
+                s = s.substring(3);
+            }
+            s = s.replace(",", "").trim();
+            if (s.isEmpty()) {
+                throw new NumberFormatException("No amount in \"" + text + "\"");
+            }
+            if (!AMOUNT.matcher(s).matches()) {
+                throw new NumberFormatException("Not a plain amount: \"" + text + "\"");
+            }
+            try {
+                long minor = new BigDecimal(s).setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+                return new Money(minor, currency);
+            } catch (ArithmeticException e) {
+                throw new NumberFormatException("Amount out of range: " + text);
+            }
+        }
+
+        Money plus(Money other) {
+            checkCurrency(other);
+            return new Money(Math.addExact(minor, other.minor), currency);
+        }
+
+        Money times(int quantity) {
+            return new Money(Math.multiplyExact(minor, quantity), currency);
+        }
+
+        @Override
+        public int compareTo(Money other) {
+            checkCurrency(other);
+            return Long.compare(minor, other.minor);
+        }
+
+        private void checkCurrency(Money other) {
+            if (!currency.equals(other.currency)) {
+                throw new IllegalArgumentException("Cannot mix " + currency + " and " + other.currency);
+            }
+        }
+
+        BigDecimal toBigDecimal() {
+            return BigDecimal.valueOf(minor, SCALE);
+        }
+
+        /** "1299.50", the form written to the database. */
+        String toPlainString() {
+            return toBigDecimal().toPlainString();
+        }
+
+        @Override
+        public String toString() {
+            if (display == null) {
+                String symbol = currency.equals("INR") ? "₹" : currency.equals("USD") ? "$" : currency + " ";
+                display = symbol + String.format("%,.2f", toBigDecimal());
+            }
+            return display;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Money && ((Money) o).minor == minor && ((Money) o).currency.equals(currency);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(minor) * 31 + currency.hashCode();
+        }
+    }
+
+    /**
+     * Counters and latency histograms for the hot paths. Recording never locks: a counter is a
+     * LongAdder and a latency sample is one atomic add into a fixed bucket array. The values can be
+     * read as a table (the Diagnostics screen), as Prometheus-style text over HTTP on localhost, and as JMX attributes.
+     */
+    static final class MetricsRegistry {
+        private final String prefix; // prepended to every name in the text format, e.g. "shop_"
+        private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+
+        MetricsRegistry(String prefix) {
+            this.prefix = prefix;
+        }
+
+        LongAdder counter(String name) {
+            return counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+
+        Latency latency(String name) {
+            return latencies.computeIfAbsent(name, k -> new Latency());
+        }
+
+        /**
+         * Log-linear latency histogram in the style of HdrHistogram. Values below 2^SUB_BITS ns are
+         * counted exactly; above that each power of two is split into 2^SUB_BITS equal buckets, so a
+         * reported percentile is never more than about 3% above the true value.
+         */
+        static final class Latency {
+            private static final int SUB_BITS = 5;
+            private static final int SUB_COUNT = 1 << SUB_BITS;
+            private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT; // covers every non-negative long
+
+            private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+            private final LongAdder totalNanos = new LongAdder();
+            private final AtomicLong maxNanos = new AtomicLong();
+
+            void recordSince(long startNanos) {
+                record(System.nanoTime() - startNanos);
+            }
+
+            void record(long nanos) {
+                if (nanos < 0) nanos = 0;
+                buckets.incrementAndGet(bucketOf(nanos));
+                totalNanos.add(nanos);
+                long max;
+                while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                    // another thread raised the max first; re-check against its value
+                }
+            }
+
+            private static int bucketOf(long value) {
+                if (value < SUB_COUNT) return (int) value;
+                int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+                return ((shift + 1) << SUB_BITS) + (int) (value >>> shift) - SUB_COUNT;
+            }
+
+            // Largest value that lands in the bucket, so percentiles err on the high side
+            private static long highestIn(int bucket) {
+                if (bucket < SUB_COUNT) return bucket;
+                int shift = (bucket >>> SUB_BITS) - 1;
+                long lowest = (long) ((bucket & (SUB_COUNT - 1)) + SUB_COUNT) << shift;
+                return lowest + (1L << shift) - 1;
+            }
+
+            Summary summary() {
+                long[] counts = new long[BUCKETS];
+                long total = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts[i] = buckets.get(i);
+                    total += counts[i];
+                }
+                long max = maxNanos.get();
+                return new Summary(total, total == 0 ? 0 : totalNanos.sum() / (double) total,
+                        valueAt(counts, total, 0.50, max), valueAt(counts, total, 0.90, max),
+                        valueAt(counts, total, 0.99, max), valueAt(counts, total, 0.999, max), max);
+            }
+
+            private static long valueAt(long[] counts, long total, double quantile, long max) {
+                if (total == 0) return 0;
+                long rank = Math.max(1, (long) Math.ceil(quantile * total));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) return Math.min(highestIn(i), max);
+                }
+                return max;
+            }
+        }
+
+        /** A point-in-time view of one histogram; times are in nanoseconds. */
+        static final class Summary {
+            final long count;
+            final double mean;
+            final long p50, p90, p99, p999, max;
+
+            Summary(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+                this.count = count;
+                this.mean = mean;
+                this.p50 = p50;
+                this.p90 = p90;
+                this.p99 = p99;
+                this.p999 = p999;
+                this.max = max;
+            }
+        }
+
+        Map<String, Long> counterValues() {
+            Map<String, Long> values = new TreeMap<>();
+            counters.forEach((name, adder) -> values.put(name, adder.sum()));
+            return values;
+        }
+
+        Map<String, Summary> latencySummaries() {
+            Map<String, Summary> values = new TreeMap<>();
+            latencies.forEach((name, latency) -> values.put(name, latency.summary()));
+            return values;
+        }
+
+        /** Prometheus text exposition: counters as counters, latencies as summaries in seconds. */
+        String toText() {
+            StringBuilder out = new StringBuilder();
+            for (Map.Entry<String, Long> e : counterValues().entrySet()) {
+                String name = metricName(e.getKey()) + "_total";
+                out.append("# TYPE ").append(name).append(" counter\n");
+                out.append(name).append(' ').append(e.getValue()).append('\n');
+            }
+            for (Map.Entry<String, Summary> e : latencySummaries().entrySet()) {
+                String name = metricName(e.getKey()) + "_seconds";
+                Summary s = e.getValue();
+                out.append("# TYPE ").append(name).append(" summary\n");
+                appendQuantile(out, name, "0.5", s.p50);
+                appendQuantile(out, name, "0.9", s.p90);
+                appendQuantile(out, name, "0.99", s.p99);
+                appendQuantile(out, name, "0.999", s.p999);
+                out.append(name).append("_count ").append(s.count).append('\n');
+                out.append(name).append("_sum ").append(s.mean * s.count / 1e9).append('\n');
+                out.append("# TYPE ").append(name).append("_max gauge\n");
+                out.append(name).append("_max ").append(s.max / 1e9).append('\n');
+            }
+            return out.toString();
+        }
+
+        private String metricName(String name) {
+            return prefix + name.replaceAll("[^A-Za-z0-9_]", "_");
+        }
+
+        private static void appendQuantile(StringBuilder out, String name, String quantile, long nanos) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(nanos / 1e9).append('\n');
+        }
+
+        /** Serves {@link #toText()} at http://127.0.0.1:{port}/metrics. Loopback only, never the LAN. */
+        com.sun.net.httpserver.HttpServer serve(int port) throws java.io.IOException {
+            com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(
+                    new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = toText().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (java.io.OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            return server;
+        }
+
+        /**
+         * Registers the metrics with the platform MBean server (jconsole, VisualVM). Counters appear
+         * as attributes under their own name, latencies as "name.count", "name.p50Ms", "name.p99Ms" etc.
+         */
+        void registerMBean(String objectName) {
+            try {
+                java.lang.management.ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new MBean(), new javax.management.ObjectName(objectName));
+            } catch (javax.management.JMException e) {
+                e.printStackTrace(); // the other views still work
+            }
+        }
+
+        private static final String[] LATENCY_ATTRIBUTES = {"count", "meanMs", "p50Ms", "p90Ms", "p99Ms", "p999Ms", "maxMs"};
+
+        private final class MBean implements javax.management.DynamicMBean {
+            @Override
+            public Object getAttribute(String attribute) throws javax.management.AttributeNotFoundException {
+                LongAdder counter = counters.get(attribute);
+                if (counter != null) return counter.sum();
+                int dot = attribute.lastIndexOf('.');
+                Latency latency = dot < 0 ? null : latencies.get(attribute.substring(0, dot));
+                if (latency == null) throw new javax.management.AttributeNotFoundException(attribute);
+                Summary s = latency.summary();
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return s.count;
+                    case "meanMs": return s.mean / 1e6;
+                    case "p50Ms": return s.p50 / 1e6;
+                    case "p90Ms": return s.p90 / 1e6;
+                    case "p99Ms": return s.p99 / 1e6;
+                    case "p999Ms": return s.p999 / 1e6;
+                    case "maxMs": return s.max / 1e6;
+                    default: throw new javax.management.AttributeNotFoundException(attribute);
+                }
+            }
+
+            @Override
+            public javax.management.AttributeList getAttributes(String[] attributes) {
+                javax.management.AttributeList list = new javax.management.AttributeList();
+                for (String attribute : attributes) {
+                    try {
+                        list.add(new javax.management.Attribute(attribute, getAttribute(attribute)));
+                    } catch (javax.management.AttributeNotFoundException e) {
+                        // left out, as the DynamicMBean contract allows
+                    }
+                }
+                return list;
+            }
+
+            @Override
+            public void setAttribute(javax.management.Attribute attribute) throws javax.management.AttributeNotFoundException {
+                throw new javax.management.AttributeNotFoundException(attribute.getName() + " is read-only");
+            }
+
+            @Override
+            public javax.management.AttributeList setAttributes(javax.management.AttributeList attributes) {
+                return new javax.management.AttributeList();
+            }
+
+            @Override
+            public Object invoke(String actionName, Object[] params, String[] signature) throws javax.management.ReflectionException {
+                throw new javax.management.ReflectionException(new NoSuchMethodException(actionName));
+            }
+
+            @Override
+            public javax.management.MBeanInfo getMBeanInfo() {
+                List<javax.management.MBeanAttributeInfo> attributes = new ArrayList<>();
+                for (String name : new TreeMap<>(counters).keySet()) {
+                    attributes.add(new javax.management.MBeanAttributeInfo(name, "long", "count", true, false, false));
+                }
+                for (String name : new TreeMap<>(latencies).keySet()) {
+                    for (String field : LATENCY_ATTRIBUTES) {
+                        String type = field.equals("count") ? "long" : "double";
+                        attributes.add(new javax.management.MBeanAttributeInfo(name + "." + field, type, field, true, false, false));
+                    }
+                }
+                return new javax.management.MBeanInfo(MetricsRegistry.class.getName(), "Counters and latency percentiles",
+                        attributes.toArray(new javax.management.MBeanAttributeInfo[0]), null, null, null);
+            }
+        }
+
+        /** The registry as a table for a diagnostics screen; call {@link #refresh()} on the EDT to update it. */
+        static final class TableModel extends AbstractTableModel {
+            private static final String[] COLUMNS = {"Metric", "Count", "Mean (ms)", "p50 (ms)", "p90 (ms)", "p99 (ms)", "p99.9 (ms)", "Max (ms)"};
+
+            private final MetricsRegistry registry;
+            private final List<Object[]> rows = new ArrayList<>();
+
+            TableModel(MetricsRegistry registry) {
+                this.registry = registry;
+                refresh();
+            }
+
+            void refresh() {
+                rows.clear();
+                for (Map.Entry<String, Summary> e : registry.latencySummaries().entrySet()) {
+                    Summary s = e.getValue();
+                    rows.add(new Object[]{e.getKey(), s.count, millis(s.mean), millis(s.p50), millis(s.p90),
+                            millis(s.p99), millis(s.p999), millis(s.max)});
+                }
+                for (Map.Entry<String, Long> e : registry.counterValues().entrySet()) {
+                    rows.add(new Object[]{e.getKey(), e.getValue(), "", "", "", "", "", ""});
+                }
+                fireTableDataChanged();
+            }
+
+            private static String millis(double nanos) {
+                return String.format("%.3f", nanos / 1e6);
+            }
+
+            @Override
+            public int getRowCount() {
+                return rows.size();
+            }
+
+            @Override
+            public int getColumnCount() {
+                return COLUMNS.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return COLUMNS[column];
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                return rows.get(row)[column];
+            }
+        }
+    }
+
+    /**
+     * Product name to id, for cart rows that never got an id from the database. It is filled
+     * from every page, search result and listing the app sees, so checkout normally resolves
+     * names without a query. Names are not unique; like the database lookup it keeps the
+     * lowest id for a name. Whatever is missing is read with {@code WHERE name IN (...)}.
+     */
+    static class ProductIdCache {
+        // A lookup is padded up to one of these sizes, so the pool caches at most three IN statements
+        private static final int[] IN_LIST_SIZES = {1, 10, 100};
+
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+        void put(String name, int id) {
+            if (id > 0) {
+                ids.merge(name, id, Math::min);
+            }
+        }
+
+        /**
+         * Puts the id of every name into {@code into}, querying for the ones not cached.
+         * Returns the number of queries run; throws if a name is not in the products table.
+         */
+        int resolve(Connection connection, List<String> names, Map<String, Integer> into) throws SQLException {
+            List<String> missing = new ArrayList<>();
+            for (String name : names) {
+                Integer id = ids.get(name);
+                if (id != null) {
+                    into.put(name, id);
+                } else if (!into.containsKey(name) && !missing.contains(name)) {
+                    missing.add(name);
+                }
+            }
+            int queries = 0;
+            int maxSize = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+            for (int from = 0; from < missing.size(); from += maxSize) {
+                List<String> chunk = missing.subList(from, Math.min(missing.size(), from + maxSize));
+                int size = maxSize;
+                for (int candidate : IN_LIST_SIZES) {
+                    if (candidate >= chunk.size()) {
+                        size = candidate;
+                        break;
+                    }
+                }
+                StringBuilder query = new StringBuilder("SELECT name, MIN(id) AS id FROM products WHERE name IN (?");
+                for (int i = 1; i < size; i++) {
+                    query.append(", ?");
+                }
+                query.append(") GROUP BY name");
+                // The database may compare names case-insensitively, so match its answers the same way
+                TreeMap<String, Integer> found = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                try (PreparedStatement statement = connection.prepareStatement(query.toString())) {
+                    for (int i = 0; i < size; i++) {
+                        statement.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1))); // pad with the last name
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            found.merge(resultSet.getString("name"), resultSet.getInt("id"), Math::min);
+                        }
+                    }
+                }
+                queries++;
+                NAME_LOOKUPS.increment();
+                for (String name : chunk) {
+                    Integer id = found.get(name);
+                    if (id == null) {
+                        throw new SQLException("Product not found: " + name);
+                    }
+                    put(name, id);
+                    into.put(name, id);
+                }
+            }
+            return queries;
+        }
+    }
+
+    /**
+     * Group commit for checkouts. Callers enqueue a cart and get a future for its order id; one
+     * writer thread takes whatever has queued up, up to {@code maxBatch} orders or
+     * {@code lingerMillis} after the first one, and writes the whole batch in one transaction:
+     * <ol>
+     *   <li>one name lookup for every line without a product id;</li>
+     *   <li>one price lookup for every product in the batch; an order naming a product that is
+     *       gone fails alone with ProductUnavailableException;</li>
+     *   <li>per order, a savepoint and its stock reservation, so a sold-out order is rolled back
+     *       alone and fails with OutOfStockException while the rest of the batch goes ahead;</li>
+     *   <li>one batch for all orders rows and one for all order_items rows;</li>
+     *   <li>one commit, after which every future is completed.</li>
+     * </ol>
+     * A batch the database aborts over a conflict is retried like a single checkout. The queue
+     * is bounded: when it is full, submit() fails at once instead of blocking the caller.
+     */
+    static class OrderPipeline {
+        private final javax.sql.DataSource dataSource;
+        private final ProductIdCache productIds;
+        private final int maxBatch;
+        private final long lingerNanos;
+        private final java.util.concurrent.ArrayBlockingQueue<PendingOrder> queue;
+        private final Thread writer;
+        private final Object enqueueLock = new Object(); // makes "not closed, so queue it" one step
+        private volatile boolean closed = false;
+
+        private static final class PendingOrder {
+            final List<CartService.Line> items;
+            final CompletableFuture<Integer> future = new CompletableFuture<>();
+            final long enqueuedAt = System.nanoTime();
+            int orderId;
+            SQLException rejected; // set when this order alone could not be placed
+
+            PendingOrder(List<CartService.Line> items) {
+                this.items = items;
+            }
+        }
+
+        OrderPipeline(javax.sql.DataSource dataSource, ProductIdCache productIds, int capacity, int maxBatch, long lingerMillis) {
+            this.dataSource = dataSource;
+            this.productIds = productIds;
+            this.maxBatch = maxBatch;
+            this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+            this.queue = new java.util.concurrent.ArrayBlockingQueue<>(capacity);
+            this.writer = new Thread(this::run, "order-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        /** Queues the order; the future completes with its id once the batch holding it is committed. */
+        CompletableFuture<Integer> submit(List<CartService.Line> items) {
+            PendingOrder order = new PendingOrder(items);
+            boolean queued;
+            synchronized (enqueueLock) {
+                // Checked and queued under the lock, so once close() has set the flag nothing more
+                // is queued and the writer's "closed and empty" test is final
+                if (closed) {
+                    order.future.completeExceptionally(new SQLException("Checkout is shutting down"));
+                    return order.future;
+                }
+                queued = queue.offer(order);
+            }
+            if (!queued) {
+                ORDERS_QUEUE_FULL.increment();
+                order.future.completeExceptionally(new SQLException("Too many orders in flight, please retry"));
+            }
+            return order.future;
+        }
+
+        /** Stops taking orders and waits up to {@code waitMillis} for the queued ones to be written. */
+        void close(long waitMillis) {
+            synchronized (enqueueLock) {
+                closed = true;
+            }
+            try {
+                writer.join(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void run() {
+            List<PendingOrder> batch = new ArrayList<>(maxBatch);
+            while (true) {
+                try {
+                    PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (closed && queue.isEmpty()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    // Linger briefly so orders arriving together share the commit
+                    long deadline = System.nanoTime() + lingerNanos;
+                    while (batch.size() < maxBatch) {
+                        if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                            continue;
+                        }
+                        long left = deadline - System.nanoTime();
+                        PendingOrder next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    write(batch);
+                } catch (InterruptedException e) {
+                    // Nobody will write these any more: fail the batch in hand and everything queued
+                    synchronized (enqueueLock) {
+                        closed = true;
+                    }
+                    queue.drainTo(batch);
+                    SQLException stopped = new SQLException("Checkout writer was interrupted; the order was not placed");
+                    for (PendingOrder order : batch) {
+                        order.future.completeExceptionally(stopped);
+                    }
+                    return;
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // fail this batch, keep the writer alive
+                    for (PendingOrder order : batch) {
+                        order.future.completeExceptionally(e);
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void write(List<PendingOrder> batch) {
+            long start = System.nanoTime();
+            for (int attempt = 1; ; attempt++) {
+                try (Connection connection = dataSource.getConnection()) {
+                    writeOnce(connection, batch);
+                    break;
+                } catch (SQLException e) {
+                    if (isConflict(e) && attempt < CHECKOUT_ATTEMPTS) {
+                        CHECKOUT_RETRIES.increment();
+                        long backoff = CHECKOUT_BACKOFF_MILLIS << (attempt - 1);
+                        try {
+                            Thread.sleep(backoff / 2 + java.util.concurrent.ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                            continue;
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    CHECKOUT_FAILURES.increment();
+                    for (PendingOrder order : batch) {
+                        order.future.completeExceptionally(e);
+                    }
+                    return;
+                }
+            }
+            ORDER_BATCH_LATENCY.recordSince(start);
+            ORDER_BATCHES.increment();
+            long now = System.nanoTime();
+            for (PendingOrder order : batch) {
+                ORDER_LATENCY.record(now - order.enqueuedAt);
+                if (order.rejected != null) {
+                    CHECKOUT_FAILURES.increment();
+                    order.future.completeExceptionally(order.rejected);
+                } else {
+                    ORDERS_COMMITTED.increment();
+                    order.future.complete(order.orderId);
+                }
+            }
+        }
+
+        private void writeOnce(Connection connection, List<PendingOrder> batch) throws SQLException {
+            int roundTrips = 0;
+            connection.setAutoCommit(false);
+            try {
+                // 1. Ids for every line that has none, across the whole batch
+                List<CartService.Line> allLines = new ArrayList<>();
+                for (PendingOrder order : batch) {
+                    order.rejected = null; // a retried batch starts over
+                    allLines.addAll(order.items);
+                }
+                Map<String, Integer> resolved = new HashMap<>();
+                boolean idsKnown = true;
+                try {
+                    roundTrips += resolveMissingIds(connection, allLines, productIds, resolved);
+                } catch (SQLException e) {
+                    if (isConflict(e)) {
+                        throw e;
+                    }
+                    idsKnown = false; // an unknown name: resolve per order below, so only its order fails
+                }
+
+                // 2. Current prices for every product the batch names, read rather than taken from
+                // the carts, which may hold them from an old catalog snapshot
+                Map<Integer, Money> prices = new HashMap<>();
+                if (idsKnown) {
+                    roundTrips += readPrices(connection, allLines, resolved, prices);
+                }
+
+                // 3. Reserve each order's stock behind its own savepoint. With no stock to take and
+                // every id known there is nothing that can fail per order, so no savepoints either.
+                boolean perOrderWork = isStockTracked(connection) || !idsKnown;
+                List<PendingOrder> accepted = new ArrayList<>(batch.size());
+                for (PendingOrder order : batch) {
+                    if (idsKnown) {
+                        try {
+                            checkAvailable(order.items, resolved, prices); // before the savepoint: nothing to undo
+                        } catch (ProductUnavailableException e) {
+                            order.rejected = e;
+                            continue;
+                        }
+                    }
+                    if (!perOrderWork) {
+                        accepted.add(order);
+                        continue;
+                    }
+                    Savepoint savepoint = connection.setSavepoint();
+                    roundTrips++;
+                    try {
+                        roundTrips += resolveMissingIds(connection, order.items, productIds, resolved);
+                        roundTrips += readPrices(connection, order.items, resolved, prices); // none once idsKnown
+                        checkAvailable(order.items, resolved, prices);
+                        roundTrips += reserveStock(connection, order.items, resolved);
+                        accepted.add(order);
+                    } catch (SQLException e) {
+                        if (isConflict(e)) {
+                            throw e; // the whole transaction is gone; retry the batch
+                        }
+                        connection.rollback(savepoint);
+                        roundTrips++;
+                        order.rejected = e;
+                    }
+                }
+
+                if (!accepted.isEmpty()) {
+                    // 4. All orders rows in one batch, then all their lines in another
+                    try (PreparedStatement orderStatement = connection.prepareStatement(INSERT_ORDER, Statement.RETURN_GENERATED_KEYS)) {
+                        for (PendingOrder order : accepted) {
+                            orderStatement.setBigDecimal(1, orderTotal(order.items, resolved, prices).toBigDecimal());
+                            orderStatement.addBatch();
+                        }
+                        orderStatement.executeBatch();
+                        roundTrips++;
+                        try (ResultSet generatedKeys = orderStatement.getGeneratedKeys()) {
+                            for (PendingOrder order : accepted) {
+                                if (!generatedKeys.next()) {
+                                    throw new SQLException("Failed to retrieve order IDs.");
+                                }
+                                order.orderId = generatedKeys.getInt(1);
+                            }
+                        }
+                    }
+                    try (PreparedStatement orderItemStatement = connection.prepareStatement(INSERT_ORDER_ITEM)) {
+                        for (PendingOrder order : accepted) {
+                            addOrderItems(orderItemStatement, order.orderId, order.items, resolved, prices);
+                        }
+                        orderItemStatement.executeBatch();
+                        roundTrips++;
+                    }
+                }
+
+                // 5. One commit for the batch
+                connection.commit();
+                roundTrips++;
+                ORDER_ROUND_TRIPS.add(roundTrips);
+            } catch (SQLException ex) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackEx) {
+                    rollbackEx.printStackTrace();
+                }
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true); //reset
+            }
+        }
+    }
+
+    /** A unit of JDBC work that runs on one of the data-access worker threads. */
+    interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Runs {@link SqlWork} on a bounded pool of worker threads and returns {@code CompletableFuture}s,
+     * so nothing touches the database from the Event Dispatch Thread. Each task borrows its own
+     * connection from the {@link javax.sql.DataSource} and returns it when done, so catalog loads,
+     * inserts and checkouts run side by side without sharing transaction state. Work beyond
+     * {@code queueCapacity} is rejected rather than queued forever.
+     */
+    static class AsyncDataAccess {
+        private final javax.sql.DataSource dataSource;
+        private final ThreadPoolExecutor executor;
+
+        AsyncDataAccess(javax.sql.DataSource dataSource, int threads, int queueCapacity) {
+            this.dataSource = dataSource;
+            AtomicInteger threadNumber = new AtomicInteger(1);
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity), r -> {
+                        Thread t = new Thread(r, "db-worker-" + threadNumber.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+
+        <T> CompletableFuture<T> submit(SqlWork<T> work) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            long submitted = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    long started = System.nanoTime();
+                    QUEUE_WAIT_LATENCY.record(started - submitted);
+                    try (Connection connection = dataSource.getConnection()) {
+                        future.complete(work.run(connection));
+                    } catch (Throwable t) {
+                        TASK_FAILURES.increment();
+                        future.completeExceptionally(t);
+                    } finally {
+                        TASK_LATENCY.recordSince(started);
+                    }
+                });
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                TASK_REJECTIONS.increment();
+                future.completeExceptionally(new SQLException("Too many database requests in flight, please retry", e));
+            }
+            return future;
+        }
+
+        void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A small JDBC connection pool exposed as a {@link javax.sql.DataSource}.
+     * <ul>
+     *   <li>keeps at least {@code minSize} idle connections open and never more than {@code maxSize} in total;</li>
+     *   <li>validates idle connections on borrow and replaces broken ones;</li>
+     *   <li>hands out proxies whose {@code close()} returns the connection, after rolling back any
+     *       open transaction and restoring autocommit;</li>
+     *   <li>logs connections held longer than the leak threshold, with the stack that borrowed them;</li>
+     *   <li>keeps prepared statements open per connection, so each SQL string is prepared once per connection;</li>
+     *   <li>tracks active/idle counts and time spent waiting for a connection.</li>
+     * </ul>
+     * It only relies on {@link DriverManager}, so any JDBC URL works, including an in-process database.
+     */
+    static class ConnectionPool implements javax.sql.DataSource {
+        private static final long MAX_WAIT_MILLIS = 5000;
+        private static final long LEAK_THRESHOLD_MILLIS = 30000;
+        private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+        private static final int STATEMENT_CACHE_SIZE = 32; // idle prepared statements kept per connection
+
+        private final String url, user, password;
+        private final int minSize, maxSize;
+        private final Semaphore permits;
+        private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+        private final Map<Connection, Lease> leased = new ConcurrentHashMap<>();
+        private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+        private final AtomicInteger openCount = new AtomicInteger();
+        private final ScheduledExecutorService housekeeper;
+        private volatile boolean closed = false;
+
+        private final LongAdder borrowCount = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder validationFailures = new LongAdder();
+        private final LongAdder leaksReported = new LongAdder();
+
+        ConnectionPool(String url, String user, String password, int minSize, int maxSize) {
+            this.url = url;
+            this.user = user;
+            this.password = password;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.permits = new Semaphore(maxSize, true);
+            this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "db-pool-housekeeper");
+                t.setDaemon(true);
+                return t;
+            });
+            // Topping up and leak checks happen off the caller's thread, so creating the pool never blocks the UI
+            housekeeper.scheduleWithFixedDelay(this::housekeeping, 0, 10, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+            long start = System.nanoTime();
+            try {
+                if (!permits.tryAcquire(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    timeouts.increment();
+                    throw new java.sql.SQLTimeoutException("Timed out after " + MAX_WAIT_MILLIS + " ms waiting for a database connection (" + this + ")");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            long waited = System.nanoTime() - start;
+            waitNanos.add(waited);
+            POOL_WAIT_LATENCY.record(waited);
+            borrowCount.increment();
+
+            try {
+                Connection physical;
+                while ((physical = idle.pollFirst()) != null) {
+                    if (isUsable(physical)) {
+                        break;
+                    }
+                    validationFailures.increment();
+                    discard(physical);
+                }
+                if (physical == null) {
+                    physical = open();
+                }
+                Lease lease = new Lease();
+                leased.put(physical, lease);
+                return wrap(physical);
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private Connection open() throws SQLException {
+            Connection connection = DriverManager.getConnection(url, user, password);
+            openCount.incrementAndGet();
+            return connection;
+        }
+
+        private boolean isUsable(Connection connection) {
+            try {
+                return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void discard(Connection connection) {
+            statementCaches.remove(connection); // closing the connection closes its statements
+            openCount.decrementAndGet();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Called once per borrowed connection, from the proxy's close()
+        private void release(Connection physical) {
+            leased.remove(physical);
+            try {
+                if (closed || physical.isClosed()) {
+                    discard(physical);
+                    return;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback(); // never hand the next borrower someone else's open transaction
+                    physical.setAutoCommit(true);
+                }
+                idle.offerFirst(physical);
+            } catch (SQLException e) {
+                discard(physical);
+            } finally {
+                permits.release();
+            }
+        }
+
+        private Connection wrap(Connection physical) {
+            AtomicBoolean returned = new AtomicBoolean(false);
+            return (Connection) java.lang.reflect.Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (returned.compareAndSet(false, true)) {
+                                    release(physical);
+                                }
+                                return null;
+                            case "isClosed":
+                                return returned.get() || physical.isClosed();
+                            case "prepareStatement":
+                                if (!returned.get() && StatementCache.isCacheable(method)) {
+                                    int keys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                                    return statementCaches.computeIfAbsent(physical, StatementCache::new)
+                                            .prepare((Connection) proxy, (String) args[0], keys);
+                                }
+                                return invoke(physical, method, args, returned);
+                            case "toString":
+                                return "Pooled[" + physical + "]";
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                return invoke(physical, method, args, returned);
+                        }
+                    });
+        }
+
+        private static Object invoke(Connection physical, java.lang.reflect.Method method, Object[] args, AtomicBoolean returned) throws Throwable {
+            if (returned.get()) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (java.lang.reflect.InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * The idle prepared statements of one physical connection, least recently used first.
+         * A borrower gets a proxy whose {@code close()} clears the parameters and hands the
+         * statement back here, so the next task on this connection skips the prepare. A statement
+         * is never shared: preparing SQL that is already checked out just prepares another one.
+         */
+        private static final class StatementCache {
+            private final Connection physical;
+            private final LinkedHashMap<String, PreparedStatement> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+            StatementCache(Connection physical) {
+                this.physical = physical;
+            }
+
+            // prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys); other overloads are rare here
+            static boolean isCacheable(java.lang.reflect.Method method) {
+                Class<?>[] types = method.getParameterTypes();
+                return types.length == 1 || (types.length == 2 && types[1] == int.class);
+            }
+
+            PreparedStatement prepare(Connection owner, String sql, int generatedKeys) throws SQLException {
+                String key = generatedKeys + ":" + sql;
+                PreparedStatement statement;
+                synchronized (this) {
+                    statement = idle.remove(key);
+                }
+                if (statement == null || statement.isClosed()) {
+                    STATEMENT_MISSES.increment();
+                    statement = physical.prepareStatement(sql, generatedKeys);
+                } else {
+                    STATEMENT_HITS.increment();
+                }
+                return wrap(owner, key, statement);
+            }
+
+            private PreparedStatement wrap(Connection owner, String key, PreparedStatement statement) {
+                AtomicBoolean returned = new AtomicBoolean(false);
+                return (PreparedStatement) java.lang.reflect.Proxy.newProxyInstance(
+                        PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                            switch (method.getName()) {
+                                case "close":
+                                    if (returned.compareAndSet(false, true)) {
+                                        giveBack(key, statement);
+                                    }
+                                    return null;
+                                case "isClosed":
+                                    return returned.get() || statement.isClosed();
+                                case "getConnection":
+                                    return owner; // never leak the physical connection
+                                case "hashCode":
+                                    return System.identityHashCode(proxy);
+                                case "equals":
+                                    return proxy == args[0];
+                                default:
+                                    if (returned.get()) {
+                                        throw new SQLException("Statement is closed");
+                                    }
+                                    try {
+                                        return method.invoke(statement, args);
+                                    } catch (java.lang.reflect.InvocationTargetException e) {
+                                        throw e.getCause();
+                                    }
+                            }
+                        });
+            }
+
+            private synchronized void giveBack(String key, PreparedStatement statement) {
+                try {
+                    if (statement.isClosed()) {
+                        return;
+                    }
+                    statement.clearParameters();
+                    statement.clearBatch();
+                    if (physical.isClosed() || idle.containsKey(key)) {
+                        statement.close(); // a second copy of a statement that is already cached
+                        return;
+                    }
+                    idle.put(key, statement);
+                    if (idle.size() > STATEMENT_CACHE_SIZE) {
+                        java.util.Iterator<PreparedStatement> eldest = idle.values().iterator();
+                        PreparedStatement evicted = eldest.next();
+                        eldest.remove();
+                        evicted.close();
+                    }
+                } catch (SQLException e) {
+                    try {
+                        statement.close();
+                    } catch (SQLException ignored) {
+                        // already unusable
+                    }
+                }
+            }
+        }
+
+        private void housekeeping() {
+            long now = System.currentTimeMillis();
+            for (Lease lease : leased.values()) {
+                if (!lease.reported && now - lease.borrowedAt > LEAK_THRESHOLD_MILLIS) {
+                    lease.reported = true;
+                    leaksReported.increment();
+                    System.err.println("Possible connection leak: held for " + (now - lease.borrowedAt) + " ms by " + lease.thread);
+                    lease.borrowedFrom.printStackTrace();
+                }
+            }
+            while (!closed && idle.size() < minSize && openCount.get() < maxSize) {
+                try {
+                    idle.offerLast(open());
+                } catch (SQLException e) {
+                    System.err.println("Could not open pooled connection: " + e.getMessage());
+                    break;
+                }
+            }
+        }
+
+        int getActiveCount() {
+            return leased.size();
+        }
+
+        int getIdleCount() {
+            return idle.size();
+        }
+
+        long getBorrowCount() {
+            return borrowCount.sum();
+        }
+
+        /** Average time callers waited for a connection, in milliseconds. */
+        double getAverageWaitMillis() {
+            long borrows = borrowCount.sum();
+            return borrows == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / borrows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("pool active=%d idle=%d open=%d/%d borrows=%d avgWait=%.2fms timeouts=%d invalid=%d leaks=%d",
+                    getActiveCount(), getIdleCount(), openCount.get(), maxSize, getBorrowCount(),
+                    getAverageWaitMillis(), timeouts.sum(), validationFailures.sum(), leaksReported.sum());
+        }
+
+        void close() {
+            closed = true;
+            housekeeper.shutdownNow();
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                discard(connection);
+            }
+            // Connections still borrowed are closed as they come back
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new java.sql.SQLFeatureNotSupportedException("Pooled connections all use the pool's credentials");
+        }
+
+        @Override
+        public java.io.PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(java.io.PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws java.sql.SQLFeatureNotSupportedException {
+            throw new java.sql.SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return iface.cast(this);
+            }
+            throw new SQLException("Not a wrapper for " + iface.getName());
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return iface.isInstance(this);
+        }
+
+        /** Who borrowed a connection and when, for leak reports. */
+        private static class Lease {
+            final long borrowedAt = System.currentTimeMillis();
+            final String thread = Thread.currentThread().getName();
+            final Exception borrowedFrom = new Exception("Connection borrowed here");
+            volatile boolean reported = false;
+        }
+    }
+
+    /** The part of one category read so far. Only touched on the Event Dispatch Thread. */
+    static class CategoryPage {
+        List<Product> base = Collections.emptyList(); // rows served from the local catalog snapshot
+        final List<Product> products = new ArrayList<>(); // rows fetched from the database after those
+        // Everything shown for the category: the snapshot rows followed by the fetched ones
+        final List<Product> rows = new java.util.AbstractList<Product>() {
+            @Override
+            public Product get(int index) {
+                return index < base.size() ? base.get(index) : products.get(index - base.size());
+            }
+
+            @Override
+            public int size() {
+                return base.size() + products.size();
+            }
+        };
+        int lastId = 0; // keyset cursor: the next page starts after this id
+        boolean more = true; // false once a short page showed the end of the category
+        boolean loading = false;
+    }
+
+    /**
+     * Read-only local copy of the catalog for fast startup. The file is laid out as
+     * <pre>
+     *   header     int magic, int version, int records, int categories, long heapOffset, long categoryOffset
+     *   records    32 bytes each: int id, long price (minor units), 3 bytes currency, byte flags,
+     *              int nameOffset, int nameLength, int descriptionOffset, int descriptionLength
+     *   heap       UTF-8 strings, referenced by offset from the start of the heap
+     *   categories 20 bytes each: int nameOffset, int nameLength, int firstRecord, int count, int lastId
+     * </pre>
+     * Records are grouped by category and in id order within one, so a category is a contiguous
+     * run and its last id is the keyset cursor for fetching newer rows. The file is mapped, not
+     * read: opening it costs the same for ten products or a million, and a {@link Product} is
+     * only built when its row is first asked for. Rows changed or deleted in the database after
+     * the snapshot was written show up once the snapshot is rebuilt.
+     * <p>
+     * A mapped file cannot be replaced or deleted on Windows, so a rebuild never touches the
+     * file in use: each one is written under the next generation number ({@code <name>.1},
+     * {@code <name>.2}, ...) and the newest valid generation is mapped on the next start, which
+     * also deletes the older ones.
+     */
+    static class CatalogSnapshot {
+        private static final int MAGIC = 0x4D4B5453; // "MKTS"
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 32;
+        private static final int RECORD_BYTES = 32;
+        private static final int CATEGORY_BYTES = 20;
+        private static final int FLAG_AUCTION = 1;
+
+        private final java.nio.ByteBuffer data;
+        private final int heapOffset;
+        private final LinkedHashMap<String, int[]> categories = new LinkedHashMap<>(); // name -> {first, count, lastId}
+        final long writtenAt;
+
+        private CatalogSnapshot(java.nio.ByteBuffer data, long writtenAt) throws java.io.IOException {
+            this.data = data;
+            this.writtenAt = writtenAt;
+            if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new java.io.IOException("not a catalog snapshot");
+            }
+            int records = data.getInt(8);
+            int categoryCount = data.getInt(12);
+            long heap = data.getLong(16);
+            long categoryOffset = data.getLong(24);
+            if (heap != HEADER_BYTES + (long) records * RECORD_BYTES || categoryOffset < heap
+                    || categoryOffset + (long) categoryCount * CATEGORY_BYTES != data.capacity()) {
+                throw new java.io.IOException("truncated or inconsistent snapshot");
+            }
+            heapOffset = (int) heap;
+            for (int i = 0; i < categoryCount; i++) {
+                int at = (int) categoryOffset + i * CATEGORY_BYTES;
+                int first = data.getInt(at + 8);
+                int count = data.getInt(at + 12);
+                if (first < 0 || count < 0 || (long) first + count > records) {
+                    throw new java.io.IOException("bad category table");
+                }
+                categories.put(string(data.getInt(at), data.getInt(at + 4)), new int[]{first, count, data.getInt(at + 16)});
+            }
+        }
+
+        /**
+         * Maps the newest usable generation of {@code base}, or returns null if there is none.
+         * Every other generation is deleted, best effort: one still mapped by a running copy of
+         * the app is simply left for a later start.
+         */
+        static CatalogSnapshot openLatest(java.io.File base) {
+            CatalogSnapshot opened = null;
+            for (java.io.File file : generations(base)) {
+                if (opened == null) {
+                    opened = openIfValid(file);
+                    if (opened != null) {
+                        continue;
+                    }
+                }
+                if (!file.delete()) {
+                    System.err.println("Could not delete old catalog snapshot " + file);
+                }
+            }
+            return opened;
+        }
+
+        /** The file the next rebuild should write: one generation past the newest on disk. */
+        static java.io.File nextFile(java.io.File base) {
+            List<java.io.File> existing = generations(base);
+            long newest = existing.isEmpty() ? 0 : generation(base, existing.get(0));
+            return new java.io.File(base.getAbsoluteFile().getPath() + "." + (newest + 1));
+        }
+
+        // Every generation of base, newest first
+        private static List<java.io.File> generations(java.io.File base) {
+            java.io.File absolute = base.getAbsoluteFile();
+            String prefix = absolute.getName() + ".";
+            List<java.io.File> found = new ArrayList<>();
+            java.io.File[] files = absolute.getParentFile() == null ? null : absolute.getParentFile().listFiles();
+            if (files != null) {
+                for (java.io.File file : files) {
+                    if (file.isFile() && file.getName().startsWith(prefix) && generation(absolute, file) > 0) {
+                        found.add(file);
+                    }
+                }
+            }
+            found.sort((a, b) -> Long.compare(generation(absolute, b), generation(absolute, a)));
+            return found;
+        }
+
+        // The generation number of file, or -1 if it is not a finished generation
+        private static long generation(java.io.File base, java.io.File file) {
+            try {
+                return Long.parseLong(file.getName().substring(base.getName().length() + 1));
+            } catch (NumberFormatException e) {
+                return -1; // e.g. name.3.tmp, a rebuild that never finished
+            }
+        }
+
+        /** Maps {@code file}, or returns null (after saying why) if it is missing or unusable. */
+        static CatalogSnapshot openIfValid(java.io.File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new java.io.IOException("larger than 2 GB");
+                }
+                // The mapping stays valid after the channel is closed
+                return new CatalogSnapshot(channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.lastModified());
+            } catch (java.io.IOException | RuntimeException e) {
+                System.err.println("Ignoring catalog snapshot " + file + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        java.util.Set<String> categoryNames() {
+            return categories.keySet();
+        }
+
+        int lastId(String category) {
+            int[] range = categories.get(category);
+            return range == null ? 0 : range[2];
+        }
+
+        /**
+         * The category's products in id order. Each row is decoded on first access and kept, so
+         * the search indexer and the EDT see the same instance whichever decodes it first.
+         */
+        List<Product> category(String category) {
+            int[] range = categories.get(category);
+            if (range == null) {
+                return Collections.emptyList();
+            }
+            int first = range[0];
+            Product[] decoded = new Product[range[1]];
+            return new java.util.AbstractList<Product>() {
+                @Override
+                public Product get(int index) {
+                    synchronized (decoded) {
+                        Product p = decoded[index];
+                        if (p == null) {
+                            p = decoded[index] = read(first + index, category);
+                        }
+                        return p;
+                    }
+                }
+
+                @Override
+                public int size() {
+                    return decoded.length;
+                }
+            };
+        }
+
+        /** Passes every product's id and name to {@code action}, without decoding the rest of the row. */
+        void forEachName(java.util.function.BiConsumer<Integer, String> action) {
+            int records = data.getInt(8);
+            for (int record = 0; record < records; record++) {
+                int at = HEADER_BYTES + record * RECORD_BYTES;
+                action.accept(data.getInt(at), string(data.getInt(at + 16), data.getInt(at + 20)));
+            }
+        }
+
+        private Product read(int record, String category) {
+            int at = HEADER_BYTES + record * RECORD_BYTES;
+            int id = data.getInt(at);
+            long minor = data.getLong(at + 4);
+            String currency = new String(new char[]{(char) data.get(at + 12), (char) data.get(at + 13), (char) data.get(at + 14)});
+            boolean auction = (data.get(at + 15) & FLAG_AUCTION) != 0;
+            Product product = new Product(string(data.getInt(at + 16), data.getInt(at + 20)), Money.ofMinor(minor, currency), auction, id);
+            product.description = string(data.getInt(at + 24), data.getInt(at + 28));
+            product.category = category;
+            return product;
+        }
+
+        private String string(int offset, int length) {
+            byte[] bytes = new byte[length];
+            java.nio.ByteBuffer view = data.duplicate();
+            view.position(heapOffset + offset);
+            view.get(bytes);
+            return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Streams products, which must arrive ordered by category and then id, into a new
+         * snapshot. Records and strings go to two temporary files that {@link #commit()} joins,
+         * so memory use does not grow with the catalog. The old snapshot is replaced atomically.
+         */
+        static class Writer implements AutoCloseable {
+            private final java.io.File target, recordFile, heapFile;
+            private final java.io.DataOutputStream records, heap;
+            private final java.io.ByteArrayOutputStream categoryTable = new java.io.ByteArrayOutputStream();
+            private int recordCount = 0, heapSize = 0, categoryCount = 0;
+            private String category;
+            private int categoryFirst, categoryLastId;
+            private boolean committed = false;
+
+            Writer(java.io.File target) throws java.io.IOException {
+                this.target = target.getAbsoluteFile();
+                this.recordFile = new java.io.File(this.target.getPath() + ".tmp");
+                this.heapFile = new java.io.File(this.target.getPath() + ".heap.tmp");
+                records = new java.io.DataOutputStream(new java.io.BufferedOutputStream(new java.io.FileOutputStream(recordFile), 1 << 16));
+                heap = new java.io.DataOutputStream(new java.io.BufferedOutputStream(new java.io.FileOutputStream(heapFile), 1 << 16));
+                records.write(new byte[HEADER_BYTES]); // filled in by commit()
+            }
+
+            void add(Product product) throws java.io.IOException {
+                String productCategory = product.category == null ? "" : product.category;
+                if (!productCategory.equals(category)) {
+                    endCategory();
+                    category = productCategory;
+                    categoryFirst = recordCount;
+                }
+                String currency = (product.price.currency + "   ").substring(0, 3);
+                records.writeInt(product.id);
+                records.writeLong(product.price.minor);
+                records.writeByte(currency.charAt(0));
+                records.writeByte(currency.charAt(1));
+                records.writeByte(currency.charAt(2));
+                records.writeByte(product.isAuction ? FLAG_AUCTION : 0);
+                writeString(records, product.name);
+                writeString(records, product.description);
+                recordCount++;
+                categoryLastId = product.id;
+            }
+
+            private void writeString(java.io.DataOutputStream out, String s) throws java.io.IOException {
+                byte[] bytes = (s == null ? "" : s).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                out.writeInt(heapSize);
+                out.writeInt(bytes.length);
+                heap.write(bytes);
+                heapSize += bytes.length;
+            }
+
+            private void endCategory() throws java.io.IOException {
+                if (category == null) {
+                    return;
+                }
+                java.io.DataOutputStream table = new java.io.DataOutputStream(categoryTable);
+                writeString(table, category);
+                table.writeInt(categoryFirst);
+                table.writeInt(recordCount - categoryFirst);
+                table.writeInt(categoryLastId);
+                categoryCount++;
+            }
+
+            void commit() throws java.io.IOException {
+                endCategory();
+                records.close();
+                heap.close();
+                long heapOffset = HEADER_BYTES + (long) recordCount * RECORD_BYTES;
+                try (java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(recordFile.toPath(), java.nio.file.StandardOpenOption.WRITE);
+                     java.nio.channels.FileChannel in = java.nio.channels.FileChannel.open(heapFile.toPath(), java.nio.file.StandardOpenOption.READ)) {
+                    long position = heapOffset;
+                    while (position < heapOffset + heapSize) {
+                        position += in.transferTo(position - heapOffset, heapOffset + heapSize - position, out.position(position));
+                    }
+                    java.nio.ByteBuffer table = java.nio.ByteBuffer.wrap(categoryTable.toByteArray());
+                    while (table.hasRemaining()) {
+                        out.write(table, position + table.position());
+                    }
+                    java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(HEADER_BYTES);
+                    header.putInt(MAGIC).putInt(VERSION).putInt(recordCount).putInt(categoryCount)
+                            .putLong(heapOffset).putLong(heapOffset + heapSize).flip();
+                    while (header.hasRemaining()) {
+                        out.write(header, header.position());
+                    }
+                    out.force(true);
+                }
+                // The target is a new generation, so nothing is replaced: the file in use stays mapped
+                java.nio.file.Files.move(recordFile.toPath(), target.toPath(), java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+                committed = true;
+            }
+
+            @Override
+            public void close() throws java.io.IOException {
+                records.close();
+                heap.close();
+                java.nio.file.Files.deleteIfExists(heapFile.toPath());
+                if (!committed) {
+                    java.nio.file.Files.deleteIfExists(recordFile.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Type-ahead over product names. Every word start of every distinct name is one entry in a
+     * sorted array, so the names with a given prefix form one contiguous range found by binary
+     * search. The most popular names in the range come out of a range-maximum tree over the
+     * entries, so a lookup costs O(limit log n) however many names share the prefix. Instances
+     * are immutable and can be read from any thread.
+     */
+    static final class SuggestionIndex {
+        static final SuggestionIndex EMPTY = new SuggestionIndex(new ArrayList<>(), new ArrayList<>());
+
+        /** One suggested name and how many units of it have sold. */
+        static final class Suggestion {
+            final String name;
+            final int popularity;
+
+            Suggestion(String name, int popularity) {
+                this.name = name;
+                this.popularity = popularity;
+            }
+        }
+
+        private final String[] names;    // distinct names as shown
+        private final String[] keys;     // the same names, lower-cased
+        private final int[] popularity;  // per name
+        private final long[] entries;    // name index << 8 | offset of a word start, sorted by the key text from there
+        private final int[] tree;        // range-maximum tree over popularity, holding entry indexes
+
+        /** {@code names} and {@code popularity} are parallel; repeated names have their popularity added up. */
+        SuggestionIndex(List<String> names, List<Integer> popularity) {
+            HashMap<String, Integer> slots = new HashMap<>();
+            List<String> shown = new ArrayList<>();
+            List<String> lower = new ArrayList<>();
+            List<Integer> counts = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                if (name == null || name.isEmpty()) {
+                    continue;
+                }
+                String key = name.toLowerCase(Locale.ROOT);
+                Integer slot = slots.get(key);
+                if (slot == null) {
+                    slots.put(key, shown.size());
+                    shown.add(name);
+                    lower.add(key);
+                    counts.add(popularity.get(i));
+                } else {
+                    counts.set(slot, counts.get(slot) + popularity.get(i));
+                }
+            }
+            this.names = shown.toArray(new String[0]);
+            this.keys = lower.toArray(new String[0]);
+            this.popularity = new int[counts.size()];
+            for (int i = 0; i < counts.size(); i++) {
+                this.popularity[i] = counts.get(i);
+            }
+
+            int entryCount = 0;
+            for (String key : keys) {
+                entryCount += wordStarts(key);
+            }
+            long[] all = new long[entryCount];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                String key = keys[i];
+                for (int at = 0; at < key.length() && at <= 0xFF; at++) {
+                    if (isWordStart(key, at)) {
+                        all[n++] = (long) i << 8 | at;
+                    }
+                }
+            }
+            sort(all, new long[n], new long[n], new long[n], new int[256], 0, n, 0);
+            this.entries = all;
+
+            // Leaves at tree[size + i]; each parent holds whichever child entry is more popular
+            int size = entries.length;
+            tree = new int[2 * Math.max(size, 1)];
+            for (int i = 0; i < size; i++) {
+                tree[size + i] = i;
+            }
+            for (int i = size - 1; i > 0; i--) {
+                tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+            }
+        }
+
+        int size() {
+            return names.length;
+        }
+
+        /** Up to {@code limit} names with a word starting with {@code prefix}, most popular first. */
+        List<Suggestion> suggest(String prefix, int limit) {
+            List<Suggestion> result = new ArrayList<>();
+            String p = prefix.toLowerCase(Locale.ROOT);
+            if (p.isEmpty() || entries.length == 0) {
+                return result;
+            }
+            int from = firstAtLeast(p, false);
+            int to = firstAtLeast(p, true); // first entry that no longer starts with p
+            if (from >= to) {
+                return result;
+            }
+            // Best-first over sub-ranges: take a range's top entry, then split the range around it
+            PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> Integer.compare(popularityOf(b[2]), popularityOf(a[2])));
+            ranges.add(new int[]{from, to, top(from, to)});
+            HashSet<Integer> taken = new HashSet<>();
+            while (!ranges.isEmpty() && result.size() < limit) {
+                int[] range = ranges.poll();
+                int best = range[2];
+                int name = (int) (entries[best] >>> 8);
+                if (taken.add(name)) { // a name can match at several word starts
+                    result.add(new Suggestion(names[name], popularity[name]));
+                }
+                if (range[0] < best) {
+                    ranges.add(new int[]{range[0], best, top(range[0], best)});
+                }
+                if (best + 1 < range[1]) {
+                    ranges.add(new int[]{best + 1, range[1], top(best + 1, range[1])});
+                }
+            }
+            return result;
+        }
+
+        private int popularityOf(int entry) {
+            return popularity[(int) (entries[entry] >>> 8)];
+        }
+
+        // Ties go to the earlier entry, i.e. alphabetical order
+        private int better(int a, int b) {
+            return popularityOf(b) > popularityOf(a) ? b : a;
+        }
+
+        // Most popular entry in [from, to)
+        private int top(int from, int to) {
+            int size = entries.length;
+            int best = from;
+            for (int lo = from + size, hi = to + size; lo < hi; lo >>= 1, hi >>= 1) {
+                if ((lo & 1) == 1) {
+                    best = better(best, tree[lo++]);
+                }
+                if ((hi & 1) == 1) {
+                    best = better(best, tree[--hi]);
+                }
+            }
+            return best;
+        }
+
+        // Binary search: the first entry whose text is >= prefix, or with {@code past}, the first
+        // whose text is greater than every string that starts with prefix
+        private int firstAtLeast(String prefix, boolean past) {
+            int lo = 0, hi = entries.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = comparePrefix(entries[mid], prefix);
+                if (cmp < 0 || (past && cmp == 0)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // <0, 0 or >0 as the entry's text sorts before, starts with, or sorts after prefix
+        private int comparePrefix(long entry, String prefix) {
+            String key = keys[(int) (entry >>> 8)];
+            int at = (int) (entry & 0xFF);
+            int n = Math.min(key.length() - at, prefix.length());
+            for (int i = 0; i < n; i++) {
+                int d = key.charAt(at + i) - prefix.charAt(i);
+                if (d != 0) {
+                    return d;
+                }
+            }
+            return key.length() - at < prefix.length() ? -1 : 0;
+        }
+
+        // Orders [lo, hi) by the entries' text four characters at a time: by the packed characters
+        // at depth * 4 first, then each run that still ties by the next four. Sorting longs
+        // instead of comparing strings keeps the work out of the name strings and in cache.
+        private void sort(long[] a, long[] heads, long[] buffer, long[] headBuffer, int[] counts, int lo, int hi, int depth) {
+            for (int i = lo; i < hi; i++) {
+                heads[i] = head(a[i], depth * 4);
+            }
+            if (hi - lo <= 32) {
+                for (int i = lo + 1; i < hi; i++) { // insertion sort, cheaper than clearing the counts
+                    long entry = a[i], head = heads[i];
+                    int j = i;
+                    for (; j > lo && Long.compareUnsigned(heads[j - 1], head) > 0; j--) {
+                        a[j] = a[j - 1];
+                        heads[j] = heads[j - 1];
+                    }
+                    a[j] = entry;
+                    heads[j] = head;
+                }
+            } else {
+                // Least significant byte first; each pass is stable, so the last one leaves full order
+                for (int shift = 0; shift < 64; shift += 8) {
+                    java.util.Arrays.fill(counts, 0);
+                    for (int i = lo; i < hi; i++) {
+                        counts[(int) (heads[i] >>> shift) & 0xFF]++;
+                    }
+                    if (counts[(int) (heads[lo] >>> shift) & 0xFF] == hi - lo) {
+                        continue; // every entry has the same digit here
+                    }
+                    for (int d = 0, at = lo; d < counts.length; d++) {
+                        int count = counts[d];
+                        counts[d] = at;
+                        at += count;
+                    }
+                    for (int i = lo; i < hi; i++) {
+                        int to = counts[(int) (heads[i] >>> shift) & 0xFF]++;
+                        buffer[to] = a[i];
+                        headBuffer[to] = heads[i];
+                    }
+                    System.arraycopy(buffer, lo, a, lo, hi - lo);
+                    System.arraycopy(headBuffer, lo, heads, lo, hi - lo);
+                }
+            }
+            for (int run = lo; run < hi; ) {
+                int end = run + 1;
+                while (end < hi && heads[end] == heads[run]) {
+                    end++;
+                }
+                if (end - run > 1 && (heads[run] & 0xFFFF) != 0) { // texts that both ended are equal
+                    sort(a, heads, buffer, headBuffer, counts, run, end, depth + 1);
+                }
+                run = end;
+            }
+        }
+
+        // Four characters of the entry's text from {@code skip} on, 16 bits each, padded with zeros
+        private long head(long entry, int skip) {
+            String key = keys[(int) (entry >>> 8)];
+            int at = (int) (entry & 0xFF) + skip;
+            long head = 0;
+            for (int i = 0; i < 4; i++) {
+                head = head << 16 | (at + i < key.length() ? key.charAt(at + i) : 0);
+            }
+            return head;
+        }
+
+        private static boolean isWordStart(String key, int at) {
+            return Character.isLetterOrDigit(key.charAt(at)) && (at == 0 || !Character.isLetterOrDigit(key.charAt(at - 1)));
+        }
+
+        private static int wordStarts(String key) {
+            int count = 0;
+            for (int at = 0; at < key.length() && at <= 0xFF; at++) {
+                if (isWordStart(key, at)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Keeps a {@link SuggestionIndex} over every product name the app knows about: the catalog
+     * snapshot, the pages loaded since and new listings. The snapshot part is built once, in the
+     * background; names arriving later go into a small second index that is rebuilt a moment
+     * after they arrive and folded into the big one when it grows. Lookups run on their own
+     * thread and read whichever indexes are current, so they never wait for a rebuild.
+     */
+    static class SuggestionService {
+        private static final int FOLD_THRESHOLD = 20000; // recent names before the big index is rebuilt
+
+        private final ScheduledExecutorService builder;
+        private final java.util.concurrent.ExecutorService lookups;
+        private final Map<Integer, String> recent = new ConcurrentHashMap<>(); // product id -> name, not yet in base
+        private final Map<Integer, Integer> unitsSold = new ConcurrentHashMap<>();
+        private volatile CatalogSnapshot snapshot;
+        private volatile SuggestionIndex base = SuggestionIndex.EMPTY;
+        private volatile SuggestionIndex delta = SuggestionIndex.EMPTY;
+        private final AtomicBoolean rebuildQueued = new AtomicBoolean(false);
+        private volatile boolean foldQueued = false;
+
+        SuggestionService() {
+            builder = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "suggest-builder");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+            lookups = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "suggest-lookup");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        /** Indexes every name in the snapshot, in the background. */
+        void addSnapshot(CatalogSnapshot snapshot) {
+            this.snapshot = snapshot;
+            foldQueued = true;
+            scheduleRebuild(1000); // units sold usually arrive meanwhile and share the build
+        }
+
+        void addProducts(List<Product> products) {
+            for (Product product : products) {
+                recent.put(product.id, product.name);
+            }
+            scheduleRebuild(500); // a page often arrives with others; index them together
+        }
+
+        /** Units sold per product id, e.g. from order_items; suggestions are ranked by these. */
+        void setUnitsSold(Map<Integer, Integer> sold) {
+            unitsSold.putAll(sold);
+            foldQueued = true;
+            scheduleRebuild(0);
+        }
+
+        void recordPurchase(List<CartService.Line> lines) {
+            for (CartService.Line line : lines) {
+                unitsSold.merge(line.product.id, line.quantity, Integer::sum); // ranked in at the next rebuild
+            }
+        }
+
+        /** Completes with up to {@code limit} suggestions for {@code prefix}, looked up off the calling thread. */
+        CompletableFuture<List<String>> lookup(String prefix, int limit) {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                List<SuggestionIndex.Suggestion> found = new ArrayList<>(base.suggest(prefix, limit));
+                found.addAll(delta.suggest(prefix, limit));
+                found.sort((a, b) -> Integer.compare(b.popularity, a.popularity)); // stable: ties keep their order
+                List<String> names = new ArrayList<>();
+                HashSet<String> seen = new HashSet<>();
+                for (SuggestionIndex.Suggestion s : found) {
+                    if (names.size() < limit && seen.add(s.name.toLowerCase(Locale.ROOT))) {
+                        names.add(s.name);
+                    }
+                }
+                SUGGEST_LATENCY.recordSince(start);
+                return names;
+            }, lookups);
+        }
+
+        private void scheduleRebuild(long delayMillis) {
+            if (rebuildQueued.compareAndSet(false, true)) {
+                builder.schedule(this::rebuild, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void rebuild() {
+            rebuildQueued.set(false);
+            try {
+                if (foldQueued || recent.size() > FOLD_THRESHOLD) {
+                    foldQueued = false;
+                    fold();
+                } else {
+                    List<String> names = new ArrayList<>();
+                    List<Integer> counts = new ArrayList<>();
+                    for (Map.Entry<Integer, String> e : recent.entrySet()) {
+                        names.add(e.getValue());
+                        counts.add(unitsSold.getOrDefault(e.getKey(), 0));
+                    }
+                    delta = new SuggestionIndex(names, counts);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep the previous indexes
+            }
+        }
+
+        // Rebuilds the big index from the snapshot plus everything recent, then empties recent
+        private void fold() {
+            long start = System.nanoTime();
+            Map<Integer, String> all = new HashMap<>();
+            CatalogSnapshot current = snapshot;
+            if (current != null) {
+                current.forEachName(all::put);
+            }
+            List<Integer> folded = new ArrayList<>(recent.keySet());
+            for (Integer id : folded) {
+                all.put(id, recent.get(id));
+            }
+            List<String> names = new ArrayList<>(all.size());
+            List<Integer> counts = new ArrayList<>(all.size());
+            for (Map.Entry<Integer, String> e : all.entrySet()) {
+                names.add(e.getValue());
+                counts.add(unitsSold.getOrDefault(e.getKey(), 0));
+            }
+            SuggestionIndex built = new SuggestionIndex(names, counts);
+            base = built;
+            recent.keySet().removeAll(folded); // anything that arrived meanwhile stays for the next delta
+            delta = SuggestionIndex.EMPTY;
+            if (!recent.isEmpty()) {
+                scheduleRebuild(0);
+            }
+            System.out.printf("Suggestions: %d names indexed in %.0f ms%n", built.size(), (System.nanoTime() - start) / 1e6);
+        }
+
+        void shutdown() {
+            builder.shutdownNow();
+            lookups.shutdownNow();
+        }
+    }
+
+    /**
+     * In-memory inverted index over product name and description tokens.
+     * Every distinct word has a posting list of the products using it, kept in ascending
+     * product id order. Terms of three or more characters are matched anywhere inside a
+     * word: a trigram index over the word dictionary finds the words containing the term,
+     * and their posting lists are merged. Shorter terms are matched as word prefixes,
+     * merging the posting lists of a dictionary range. Multi-word queries intersect the
+     * merged lists, so nothing re-reads product text or scans the catalog. Pages are added
+     * as they are loaded, and the index is only touched on the Event Dispatch Thread.
+     */
+    static class ProductSearchIndex {
+        private static final int GRAM = 3;
+        private static final Posting EMPTY = new Posting(0);
+
+        /**
+         * Products in ascending id order. The ids are kept alongside in a flat array, so merging
+         * two lists reads consecutive ints instead of touching every Product object.
+         */
+        static final class Posting {
+            int[] ids;
+            Product[] products;
+            int size;
+
+            Posting(int capacity) {
+                ids = new int[capacity];
+                products = new Product[capacity];
+            }
+
+            // Products are added one at a time and almost always in id order, so this is
+            // usually a de-dup check against the tail and an append.
+            void add(Product product) {
+                int at = size;
+                if (size > 0 && ids[size - 1] >= product.id) {
+                    at = java.util.Arrays.binarySearch(ids, 0, size, product.id);
+                    if (at >= 0) {
+                        return; // already listed
+                    }
+                    at = -at - 1;
+                }
+                if (size == ids.length) {
+                    int capacity = Math.max(4, size * 2);
+                    ids = java.util.Arrays.copyOf(ids, capacity);
+                    products = java.util.Arrays.copyOf(products, capacity);
+                }
+                System.arraycopy(ids, at, ids, at + 1, size - at);
+                System.arraycopy(products, at, products, at + 1, size - at);
+                ids[at] = product.id;
+                products[at] = product;
+                size++;
+            }
+
+            void append(int id, Product product) {
+                ids[size] = id;
+                products[size++] = product;
+            }
+
+            List<Product> toList() {
+                return new ArrayList<>(java.util.Arrays.asList(products).subList(0, size));
+            }
+        }
+
+        private final Posting all = new Posting(16);
+        private final TreeMap<String, Posting> words = new TreeMap<>();              // word -> products using it
+        private final HashMap<String, List<String>> grams = new HashMap<>();          // trigram -> dictionary words containing it
+
+        void clear() {
+            all.size = 0;
+            words.clear();
+            grams.clear();
+        }
+
+        int size() {
+            return all.size;
+        }
+
+        void add(Product product) {
+            all.add(product);
+            for (String word : tokenize(product.name + " " + (product.description == null ? "" : product.description))) {
+                Posting posting = words.get(word);
+                if (posting == null) {
+                    posting = new Posting(1);
+                    words.put(word, posting);
+                    for (int i = 0; i + GRAM <= word.length(); i++) {
+                        List<String> containing = grams.computeIfAbsent(word.substring(i, i + GRAM), k -> new ArrayList<>());
+                        if (containing.isEmpty() || !containing.get(containing.size() - 1).equals(word)) {
+                            containing.add(word); // a trigram repeated within the word is listed once
+                        }
+                    }
+                }
+                posting.add(product);
+            }
+        }
+
+        /** Products matching every term of the query, in catalog (id) order. */
+        List<Product> search(String query) {
+            Posting result = all;
+            for (String term : tokenize(query)) {
+                Posting matches = term.length() >= GRAM ? containing(term) : startingWith(term);
+                result = result == all ? matches : intersect(result, matches);
+                if (result.size == 0) {
+                    break;
+                }
+            }
+            return result.toList();
+        }
+
+        private Posting containing(String term) {
+            // The term's rarest trigram narrows the dictionary; those words are then checked directly
+            List<String> candidates = null;
+            for (int i = 0; i + GRAM <= term.length(); i++) {
+                List<String> containing = grams.get(term.substring(i, i + GRAM));
+                if (containing == null) {
+                    return EMPTY;
+                }
+                if (candidates == null || containing.size() < candidates.size()) {
+                    candidates = containing;
+                }
+            }
+            List<Posting> postings = new ArrayList<>();
+            for (String word : candidates) {
+                if (word.contains(term)) {
+                    postings.add(words.get(word));
+                }
+            }
+            return union(postings);
+        }
+
+        private Posting startingWith(String prefix) {
+            return union(words.subMap(prefix, prefix + Character.MAX_VALUE).values());
+        }
+
+        // k-way merge of already sorted lists through a min-heap of list numbers keyed by each
+        // list's next id, so n ids spread over k lists cost n log k and nothing is re-sorted.
+        // Prefix queries can match thousands of words used by one product each; those single
+        // entries are collected on a primitive key instead of each taking a heap slot.
+        private static Posting union(java.util.Collection<Posting> postings) {
+            if (postings.isEmpty()) {
+                return EMPTY;
+            }
+            if (postings.size() == 1) {
+                return postings.iterator().next();
+            }
+            List<Posting> lists = new ArrayList<>();
+            long[] singles = new long[16]; // id << 32 | list number
+            int singleCount = 0;
+            Posting[] byNumber = postings.toArray(new Posting[0]);
+            for (int l = 0; l < byNumber.length; l++) {
+                Posting posting = byNumber[l];
+                if (posting.size == 1) {
+                    if (singleCount == singles.length) {
+                        singles = java.util.Arrays.copyOf(singles, singleCount * 2);
+                    }
+                    singles[singleCount++] = (long) posting.ids[0] << 32 | l;
+                } else if (posting.size > 1) {
+                    lists.add(posting);
+                }
+            }
+            if (singleCount > 0) {
+                java.util.Arrays.sort(singles, 0, singleCount);
+                Posting single = new Posting(singleCount);
+                for (int i = 0; i < singleCount; i++) {
+                    int id = (int) (singles[i] >>> 32);
+                    if (single.size == 0 || single.ids[single.size - 1] != id) {
+                        single.append(id, byNumber[(int) singles[i]].products[0]);
+                    }
+                }
+                lists.add(single);
+            }
+            int k = lists.size();
+            if (k == 1) {
+                return lists.get(0);
+            }
+            int[] heap = new int[k], key = new int[k], pos = new int[k];
+            int total = 0;
+            for (int l = 0; l < k; l++) {
+                heap[l] = l;
+                key[l] = lists.get(l).ids[0];
+                total += lists.get(l).size;
+            }
+            for (int i = k / 2 - 1; i >= 0; i--) {
+                siftDown(heap, key, i, k);
+            }
+            Posting out = new Posting(total);
+            int n = k;
+            while (n > 0) {
+                Posting list = lists.get(heap[0]);
+                int l = heap[0], id = key[0];
+                if (out.size == 0 || out.ids[out.size - 1] != id) {
+                    out.append(id, list.products[pos[l]]);
+                }
+                if (++pos[l] < list.size) {
+                    key[0] = list.ids[pos[l]];
+                } else {
+                    n--;
+                    heap[0] = heap[n];
+                    key[0] = key[n];
+                }
+                siftDown(heap, key, 0, n);
+            }
+            return out;
+        }
+
+        private static void siftDown(int[] heap, int[] key, int i, int n) {
+            int list = heap[i], id = key[i];
+            for (int child = 2 * i + 1; child < n; child = 2 * i + 1) {
+                if (child + 1 < n && key[child + 1] < key[child]) {
+                    child++;
+                }
+                if (key[child] >= id) {
+                    break;
+                }
+                heap[i] = heap[child];
+                key[i] = key[child];
+                i = child;
+            }
+            heap[i] = list;
+            key[i] = id;
+        }
+
+        private static Posting intersect(Posting a, Posting b) {
+            if (a.size > b.size) {
+                Posting t = a;
+                a = b;
+                b = t;
+            }
+            Posting out = new Posting(a.size);
+            if (a.size * 32 < b.size) {
+                // Much smaller list: gallop through the larger one instead of stepping over it
+                int from = 0;
+                for (int i = 0; i < a.size && from < b.size; i++) {
+                    int step = 1, hi = from;
+                    while (hi < b.size && b.ids[hi] < a.ids[i]) {
+                        from = hi + 1;
+                        hi += step;
+                        step <<= 1;
+                    }
+                    int at = java.util.Arrays.binarySearch(b.ids, from, Math.min(hi + 1, b.size), a.ids[i]);
+                    if (at >= 0) {
+                        out.append(a.ids[i], a.products[i]);
+                        from = at + 1;
+                    } else {
+                        from = -at - 1;
+                    }
+                }
+                return out;
+            }
+            int i = 0, j = 0;
+            while (i < a.size && j < b.size) {
+                int x = a.ids[i], y = b.ids[j];
+                if (x == y) {
+                    out.append(x, a.products[i]);
+                }
+                // Advanced without branching on the comparison, which is unpredictable for
+                // interleaved lists
+                i += x <= y ? 1 : 0;
+                j += y <= x ? 1 : 0;
+            }
+            return out;
+        }
+
+        static List<String> tokenize(String text) {
+            List<String> tokens = new ArrayList<>();
+            for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+            }
+            return tokens;
+        }
+    }
+
+    // Shared style for the action-button columns. Renderers are called for every
+    // visible cell on every repaint, so nothing in the paint path may allocate.
+    private static final Color ACTION_BACKGROUND = new Color(46, 204, 113);
+    private static final Font ACTION_FONT = new Font("Arial", Font.BOLD, 16);
+
+    private static void styleActionButton(JButton button) {
+        button.setOpaque(true);
+        button.setBackground(ACTION_BACKGROUND);
+        button.setForeground(Color.white);
+        button.setFont(ACTION_FONT);
+    }
+
+    // One renderer serves every action column (Add to Cart, Place Bid, Remove):
+    // Swing only borrows it while stamping a cell, so sharing it is safe on the EDT.
+    private final ButtonRenderer actionRenderer = new ButtonRenderer();
+
+    static class ButtonRenderer extends JButton implements javax.swing.table.TableCellRenderer {
+        public ButtonRenderer() {
+            styleActionButton(this);
+        }
+
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            // Cell values are the label strings themselves, so toString() is free;
+            // skip setText when unchanged to avoid a revalidate per cell.
+            String text = (value == null) ? "Add" : value.toString();
+            if (!text.equals(getText())) {
+                setText(text);
+            }
+            return this;
+        }
+    }
+
+    class ButtonEditor extends DefaultCellEditor {
+        protected JButton button;
+        private String label;
+        private boolean clicked;
+        private int row;
+        private final java.util.function.IntConsumer action; // called with the clicked row's model index
+
+        public ButtonEditor(java.util.function.IntConsumer action) {
+            super(new JCheckBox());
+            this.action = action;
+            button = new JButton();
+            styleActionButton(button);
+            button.addActionListener(e -> fireEditingStopped());
+        }
+
+        public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row, int column) {
+            label = (value == null) ? "Add" : value.toString();
+            if (!label.equals(button.getText())) {
+                button.setText(label);
+            }
+            clicked = true;
+            this.row = row;
+            return button;
+        }
+
+        public Object getCellEditorValue() {
+            if (clicked) {
+                JTable table = (JTable) button.getParent();
+                while (!(table instanceof JTable)) {
                     table = (JTable) table.getParent();
                 }
-                String name = (String) table.getValueAt(row, 0);
-                String price = (String) table.getValueAt(row, 1);
-                cart.add(new Product(name, price));
-                JOptionPane.showMessageDialog(null, name + " added to cart!");
+                int modelRow = table.convertRowIndexToModel(row);
+                // Run once editing has finished, since the action may remove this very row
+                SwingUtilities.invokeLater(() -> action.accept(modelRow));
             }
             clicked = false;
             return label;
@@ -622,18 +3983,34 @@ public class MarketplaceApp extends JFrame {
     @Override
     public void dispose() {
         try {
-            if (connection != null) {
-                connection.close();
-                System.out.println("Database connection closed.");
+            if (orderPipeline != null) {
+                orderPipeline.close(5000); // let queued checkouts commit before the connections go
+            }
+            if (dataAccess != null) {
+                dataAccess.shutdown();
+            }
+            suggestions.shutdown();
+            if (connectionPool != null) {
+                System.out.println("Closing database connections: " + connectionPool);
+                connectionPool.close();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         } finally {
             super.dispose(); // Call superclass dispose() to ensure proper cleanup.
         }
     }
 
     public static void main(String[] args) {
+        // JMX is always available to a local jconsole; HTTP only when a port is given
+        METRICS.registerMBean("marketplace:type=Metrics");
+        Integer metricsPort = Integer.getInteger("marketplace.metrics.port");
+        if (metricsPort != null) {
+            try {
+                METRICS.serve(metricsPort);
+                System.out.println("Metrics: http://127.0.0.1:" + metricsPort + "/metrics");
+            } catch (java.io.IOException e) {
+                e.printStackTrace(); // the Diagnostics screen still works
+            }
+        }
         SwingUtilities.invokeLater(MarketplaceApp::new);
     }
 }